@@ -0,0 +1,468 @@
+package com.klipper.app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.arthenica.ffmpegkit.FFmpegKit;
+import com.arthenica.ffmpegkit.FFmpegKitConfig;
+import com.arthenica.ffmpegkit.FFmpegSession;
+import com.arthenica.ffmpegkit.ReturnCode;
+
+/**
+ * Runs copy, encode and publish as three overlapping stages instead of one
+ * after another:
+ *
+ *   copy (I/O thread) -> encode (calling thread) -> bounded queue -> publish (I/O thread)
+ *
+ * Publishing part N overlaps encoding part N+1, and when the input has to be
+ * copied, encoding starts on a part as soon as the bytes covering its range
+ * have been copied. That is only attempted for MP4s whose moov box comes
+ * before mdat (otherwise nothing can be read until the copy is complete), and
+ * a part started early that fails, or comes out shorter than its range
+ * (FFmpeg takes the end of a growing file for the end of the input), is
+ * retried once the copy ends.
+ * Each stage records how long it was busy and how long it waited.
+ */
+final class ClipPipeline {
+
+    private static final String TAG = "ClipPipeline";
+    /** Copy progress is published to the encode stage at least this often. */
+    private static final long COPY_PROGRESS_STEP = 1024 * 1024;
+    private static final int PUBLISH_QUEUE_SIZE = 2;
+    private static final long MIN_READ_AHEAD = 4L * 1024 * 1024;
+    /** An early-started part this much shorter than its range is taken as truncated. */
+    private static final double TRUNCATION_TOLERANCE = 0.25;
+
+    interface Listener {
+        void onPartDone(Part part);
+    }
+
+    static class Part {
+        final int index;
+        final double start;
+        final double end;
+        final String outputName;
+        File output;
+        boolean startedEarly;
+        boolean success;
+        String publishedPath;
+        String strategy;
+        String error;
+
+        Part(int index, double start, double end, String outputName) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.outputName = outputName;
+        }
+    }
+
+    static class StageStats {
+        final String name;
+        volatile long busyNanos;
+        volatile long idleNanos;
+        volatile int items;
+
+        StageStats(String name) {
+            this.name = name;
+        }
+    }
+
+    private enum Layout { UNKNOWN, PROGRESSIVE, MOOV_AT_END }
+
+    private static final Part END_OF_PARTS = new Part(-1, 0, 0, null);
+
+    final StageStats copyStats = new StageStats("copy");
+    final StageStats encodeStats = new StageStats("encode");
+    final StageStats publishStats = new StageStats("publish");
+
+    private final Context context;
+    private final String input;
+    private final File copyFile;
+    private final long sourceSize;
+    private final double duration;
+    private final CommandPlanner.Job template;
+    private final File workDir;
+    private final File destDir;
+    private final Listener listener;
+
+    private final Object copyLock = new Object();
+    private long copiedBytes;
+    private boolean copyDone;
+    private String copyError;
+    private Layout layout = Layout.UNKNOWN;
+    private long scanPosition;
+
+    private final Object sessionLock = new Object();
+    private volatile boolean cancelled;
+    private FFmpegSession currentSession;
+
+    /**
+     * @param copyFile   where to copy the input first, or null to read {@code input} directly
+     * @param sourceSize input size in bytes, or -1 if unknown (disables early encoding)
+     * @param duration   input duration in seconds, or 0 if unknown (disables early encoding)
+     * @param template   encode settings shared by all parts; input/output/range are filled in per part
+     */
+    ClipPipeline(Context context, String input, File copyFile, long sourceSize, double duration,
+                 CommandPlanner.Job template, File workDir, File destDir, Listener listener) {
+        this.context = context;
+        this.input = input;
+        this.copyFile = copyFile;
+        this.sourceSize = sourceSize;
+        this.duration = duration;
+        this.template = template;
+        this.workDir = workDir;
+        this.destDir = destDir;
+        this.listener = listener;
+    }
+
+    /** Blocks until every part has been encoded and published (or failed). */
+    List<Part> run(List<Part> parts) throws InterruptedException {
+        BlockingQueue<Part> publishQueue = new ArrayBlockingQueue<>(PUBLISH_QUEUE_SIZE);
+
+        Thread copier = null;
+        if (copyFile != null) {
+            copier = new Thread(this::copyStage, "klipper-pipeline-copy");
+            copier.start();
+        } else {
+            synchronized (copyLock) {
+                copyDone = true;
+            }
+        }
+
+        Thread publisher = new Thread(() -> publishStage(publishQueue), "klipper-pipeline-publish");
+        publisher.start();
+
+        try {
+            for (Part part : parts) {
+                if (cancelled) {
+                    part.error = "Cancelled";
+                } else {
+                    encodeStage(part);
+                }
+
+                long waitStart = System.nanoTime();
+                publishQueue.put(part);
+                encodeStats.idleNanos += System.nanoTime() - waitStart;
+            }
+        } finally {
+            publishQueue.put(END_OF_PARTS);
+            publisher.join();
+            if (copier != null) {
+                copier.join();
+            }
+        }
+
+        return parts;
+    }
+
+    void cancel() {
+        FFmpegSession session;
+        synchronized (sessionLock) {
+            cancelled = true;
+            session = currentSession;
+        }
+        if (session != null) {
+            FFmpegKit.cancel(session.getSessionId());
+        }
+        synchronized (copyLock) {
+            copyLock.notifyAll();
+        }
+    }
+
+    // ---- copy stage ----
+
+    private void copyStage() {
+        long start = System.nanoTime();
+        try (InputStream in = context.getContentResolver().openInputStream(Uri.parse(input));
+             FileOutputStream out = new FileOutputStream(copyFile);
+             RandomAccessFile reader = new RandomAccessFile(copyFile, "r")) {
+            if (in == null) {
+                throw new IOException("Cannot open " + input);
+            }
+            // Only non-seekable inputs are copied, and SAF hands those out as a
+            // FileInputStream over a pipe: read it as a stream, never as a channel
+            byte[] buffer = new byte[StreamCopy.BUFFER_SIZE];
+            long position = 0;
+            long published = 0;
+            int read;
+            while (!cancelled && (read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                position += read;
+                if (position - published >= COPY_PROGRESS_STEP) {
+                    published = position;
+                    publishCopied(reader, position);
+                }
+            }
+            if (cancelled) {
+                throw new IOException("Cancelled");
+            }
+            publishCopied(reader, position);
+            Metrics.get().record(Metrics.COPY, System.nanoTime() - start, position, 0);
+            Log.d(TAG, "Copied " + position + " bytes, layout " + layout);
+        } catch (IOException e) {
+            Log.e(TAG, "Copy failed: " + e.getMessage());
+            synchronized (copyLock) {
+                copyError = e.getMessage();
+            }
+        } finally {
+            copyStats.busyNanos = System.nanoTime() - start;
+            copyStats.items = 1;
+            synchronized (copyLock) {
+                copyDone = true;
+                copyLock.notifyAll();
+            }
+        }
+    }
+
+    private void publishCopied(RandomAccessFile reader, long position) throws IOException {
+        synchronized (copyLock) {
+            copiedBytes = position;
+            scanLayout(reader, position);
+            copyLock.notifyAll();
+        }
+    }
+
+    /** Walk top-level MP4 boxes in the copied prefix until moov or mdat shows up. */
+    private void scanLayout(RandomAccessFile reader, long available) throws IOException {
+        while (layout == Layout.UNKNOWN && scanPosition + 16 <= available) {
+            reader.seek(scanPosition);
+            long size = reader.readInt() & 0xffffffffL;
+            byte[] type = new byte[4];
+            reader.readFully(type);
+            String boxType = new String(type, "US-ASCII");
+
+            if (scanPosition == 0 && !"ftyp".equals(boxType)) {
+                // Not an MP4/MOV; don't guess, wait for the full copy
+                layout = Layout.MOOV_AT_END;
+                return;
+            }
+            if ("moov".equals(boxType)) {
+                layout = Layout.PROGRESSIVE;
+                return;
+            }
+            if ("mdat".equals(boxType)) {
+                layout = Layout.MOOV_AT_END;
+                return;
+            }
+            if (size == 1) {
+                size = reader.readLong();
+            } else if (size == 0) {
+                layout = Layout.MOOV_AT_END;
+                return;
+            }
+            scanPosition += size;
+        }
+    }
+
+    // ---- encode stage ----
+
+    private void encodeStage(Part part) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        boolean copyFinished = waitForBytes(part);
+        encodeStats.idleNanos += System.nanoTime() - waitStart;
+
+        if (cancelled) {
+            part.error = "Cancelled";
+            return;
+        }
+        String error = copyError();
+        if (error != null) {
+            part.error = "Copy failed: " + error;
+            return;
+        }
+
+        part.startedEarly = !copyFinished;
+        part.output = new File(workDir, part.outputName);
+        long busyStart = System.nanoTime();
+        try {
+            String problem = null;
+            try {
+                encode(part);
+                if (part.startedEarly && !coversRange(part)) {
+                    problem = "output is shorter than the range";
+                }
+            } catch (IOException e) {
+                if (!part.startedEarly || cancelled) {
+                    throw e;
+                }
+                problem = e.getMessage();
+            }
+
+            if (problem != null) {
+                // The estimate of how far the copy had to be was too optimistic
+                Log.d(TAG, "Part " + (part.index + 1) + " started early and failed, retrying: " + problem);
+                encodeStats.busyNanos += System.nanoTime() - busyStart;
+                waitStart = System.nanoTime();
+                waitForCopy();
+                encodeStats.idleNanos += System.nanoTime() - waitStart;
+                busyStart = System.nanoTime();
+                if (cancelled) {
+                    throw new IOException("Cancelled");
+                }
+                if (copyError() != null) {
+                    throw new IOException("Copy failed: " + copyError());
+                }
+                encode(part);
+            }
+            if (cancelled) {
+                // Stopped as the encode finished; the part is not published
+                throw new IOException("Cancelled");
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // workDir may be the public folder; never leave a half-written clip for the scanner
+            part.output.delete();
+            // A part the planner rejects fails alone; the others still run
+            part.error = e.getMessage();
+        } finally {
+            encodeStats.busyNanos += System.nanoTime() - busyStart;
+            encodeStats.items++;
+        }
+    }
+
+    private void encode(Part part) throws IOException {
+        CommandPlanner.Job job = new CommandPlanner.Job();
+        job.input = copyFile != null ? copyFile.getAbsolutePath() : FFmpegPlugin.resolveInput(context, input);
+        job.output = part.output.getAbsolutePath();
+        job.start = part.start;
+        job.end = part.end;
+        job.crop = template.crop;
+        job.watermark = template.watermark;
+        job.videoCodec = template.videoCodec;
+        job.audioCodec = template.audioCodec;
+        job.preset = template.preset;
+        job.crf = template.crf;
+        job.threads = template.threads;
+
+        List<String> args = CommandPlanner.plan(job).arguments;
+        FFmpegSession session = FFmpegSession.create(args.toArray(new String[0]));
+        synchronized (sessionLock) {
+            // Either cancel() sees this session or we see its flag; never neither
+            if (cancelled) {
+                throw new IOException("Cancelled");
+            }
+            currentSession = session;
+        }
+        long startTime = System.nanoTime();
+        try {
+            FFmpegKitConfig.ffmpegExecute(session);
+        } finally {
+            synchronized (sessionLock) {
+                currentSession = null;
+            }
+        }
+        Metrics.get().recordSession(session, System.nanoTime() - startTime);
+
+        if (ReturnCode.isCancel(session.getReturnCode()) || cancelled) {
+            throw new IOException("Cancelled");
+        }
+        if (!ReturnCode.isSuccess(session.getReturnCode())) {
+            throw new IOException("FFmpeg failed with return code " + session.getReturnCode().getValue());
+        }
+    }
+
+    /** Wait until the part's bytes are copied (early start) or the copy is over; returns copy-finished. */
+    private boolean waitForBytes(Part part) throws InterruptedException {
+        synchronized (copyLock) {
+            while (!copyDone && !cancelled) {
+                if (layout == Layout.PROGRESSIVE && copiedBytes >= requiredBytes(part)) {
+                    return false;
+                }
+                copyLock.wait();
+            }
+            return true;
+        }
+    }
+
+    private void waitForCopy() throws InterruptedException {
+        synchronized (copyLock) {
+            while (!copyDone && !cancelled) {
+                copyLock.wait();
+            }
+        }
+    }
+
+    /** Estimated prefix of the file that holds the part, with read-ahead margin; MAX_VALUE if unknown. */
+    private long requiredBytes(Part part) {
+        if (sourceSize <= 0 || duration <= 0) {
+            return Long.MAX_VALUE;
+        }
+        double fraction = Math.min(1.0, (part.end + 2.0) / duration);
+        long margin = Math.max(MIN_READ_AHEAD, sourceSize / 50);
+        return Math.min(sourceSize, (long) (sourceSize * fraction) + margin);
+    }
+
+    /** Whether the part's output lasts as long as its range (clamped to the input's duration, when known). */
+    private boolean coversRange(Part part) {
+        double end = duration > 0 ? Math.min(part.end, duration) : part.end;
+        try {
+            return OutputManifest.probeDuration(part.output.getAbsolutePath())
+                >= end - part.start - TRUNCATION_TOLERANCE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private String copyError() {
+        synchronized (copyLock) {
+            return copyError;
+        }
+    }
+
+    // ---- publish stage ----
+
+    private void publishStage(BlockingQueue<Part> queue) {
+        while (true) {
+            Part part;
+            long waitStart = System.nanoTime();
+            try {
+                part = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            publishStats.idleNanos += System.nanoTime() - waitStart;
+
+            if (part == END_OF_PARTS) {
+                return;
+            }
+
+            long busyStart = System.nanoTime();
+            if (part.error == null) {
+                try {
+                    File dest = new File(destDir, part.outputName);
+                    FFmpegPlugin.Published published = FFmpegPlugin.publishFile(context, part.output, dest);
+                    part.publishedPath = dest.getAbsolutePath();
+                    part.strategy = published.strategy;
+                    part.success = true;
+                } catch (IOException e) {
+                    part.error = "Publish failed: " + e.getMessage();
+                }
+            }
+            publishStats.busyNanos += System.nanoTime() - busyStart;
+            publishStats.items++;
+
+            if (listener != null) {
+                listener.onPartDone(part);
+            }
+        }
+    }
+
+    List<StageStats> stats() {
+        List<StageStats> stats = new ArrayList<>();
+        stats.add(copyStats);
+        stats.add(encodeStats);
+        stats.add(publishStats);
+        return stats;
+    }
+}
@@ -0,0 +1,438 @@
+package com.klipper.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Turns a structured clip job into FFmpeg arguments.
+ *
+ * Unlike buildFullCommand in www/ffmpeg-commands.js this seeks on the input
+ * side (-ss before -i, so FFmpeg jumps to the nearest keyframe instead of
+ * decoding from zero) and trims accurately with -t, and it stream-copies
+ * every stream that no filter touches. The result is an argument array for
+ * executeWithArguments, so nothing is re-parsed from a quoted string.
+ */
+final class CommandPlanner {
+
+    static final String CROP_9_16 = "crop=ih*9/16:ih:(iw-ih*9/16)/2:0";
+
+    static class Watermark {
+        /** Pre-rendered PNG (WatermarkRenderer); when set, overlay replaces drawtext. */
+        String image;
+        String textFile;
+        String fontFile;
+        String position = "center";
+        int fontSize = 24;
+    }
+
+    static class Job {
+        String input;
+        String output;
+        double start = -1;
+        double end = -1;
+        boolean crop;
+        Watermark watermark;
+        /** "auto" (copy when unfiltered), "copy", or an encoder name. */
+        String videoCodec = "auto";
+        /** "auto" (copy when unfiltered), "copy", or an encoder name. */
+        String audioCodec = "auto";
+        String preset = "fast";
+        int crf = 23;
+        /** Encoder threads; 0 leaves the count to the encoder. */
+        int threads;
+        /**
+         * Whether start is on a keyframe (KeyframeIndex). When it isn't, "auto"
+         * video is re-encoded so the clip starts exactly at start; "copy"
+         * still copies and begins at the keyframe before it.
+         */
+        boolean startOnKeyframe = true;
+    }
+
+    static class Plan {
+        final List<String> arguments = new ArrayList<>();
+        String videoFilter;
+        boolean copyVideo;
+        boolean copyAudio;
+    }
+
+    /** One output of a fan-out job, with its own filters and encoder settings. */
+    static class Variant {
+        String output;
+        boolean crop;
+        /** Scale to this height after cropping (rounded down to even; width follows, kept even); 0 keeps the size. */
+        int height;
+        Watermark watermark;
+        String videoCodec = "auto";
+        String audioCodec = "auto";
+        String preset = "fast";
+        int crf = 23;
+    }
+
+    /** Several outputs of one input range, written by a single FFmpeg session. */
+    static class FanOutJob {
+        String input;
+        double start = -1;
+        double end = -1;
+        /**
+         * Whether start is on a keyframe (KeyframeIndex). A stream copy starts
+         * at the keyframe before start, so when it isn't, "auto" variants are
+         * re-encoded to start exactly at start; "copy" ones still copy and
+         * begin early.
+         */
+        boolean startOnKeyframe = true;
+        final List<Variant> variants = new ArrayList<>();
+    }
+
+    static class FanOutPlan {
+        final List<String> arguments = new ArrayList<>();
+        String filterGraph;
+        /** Per variant, in order: whether its video is stream-copied instead of split from the decode. */
+        boolean[] copyVideo;
+        /** Variants fed from the one decode (0 when every variant is a stream copy). */
+        int decodedVariants;
+    }
+
+    private CommandPlanner() {
+    }
+
+    static Plan plan(Job job) {
+        if (job.input == null || job.output == null) {
+            throw new IllegalArgumentException("Input and output are required");
+        }
+        if (job.start >= 0 && job.end >= 0 && job.end <= job.start) {
+            throw new IllegalArgumentException("End must be after start");
+        }
+
+        Plan plan = new Plan();
+        plan.videoFilter = buildVideoFilter(job);
+        plan.copyVideo = chooseCopy(job.videoCodec, plan.videoFilter != null, "video")
+            && (job.startOnKeyframe || "copy".equals(job.videoCodec));
+        // No audio filters exist yet, so audio is only re-encoded on request
+        plan.copyAudio = chooseCopy(job.audioCodec, false, "audio");
+
+        List<String> args = plan.arguments;
+        args.add("-y");
+
+        // Input seeking: jump straight to the keyframe before start, then
+        // decode-and-discard the rest (accurate_seek) when re-encoding
+        if (job.start > 0) {
+            args.add("-ss");
+            args.add(formatSeconds(job.start));
+        }
+        args.add("-i");
+        args.add(job.input);
+
+        boolean overlay = job.watermark != null && job.watermark.image != null;
+        if (overlay) {
+            args.add("-i");
+            args.add(job.watermark.image);
+        }
+
+        if (job.end >= 0) {
+            args.add("-t");
+            args.add(formatSeconds(job.end - Math.max(0, job.start)));
+        }
+
+        if (overlay && !plan.copyVideo) {
+            args.add("-filter_complex");
+            args.add(plan.videoFilter);
+            args.add("-map");
+            args.add("[v]");
+        } else {
+            args.add("-map");
+            args.add("0:v:0");
+        }
+        args.add("-map");
+        args.add("0:a?");
+
+        if (plan.copyVideo) {
+            args.add("-c:v");
+            args.add("copy");
+        } else {
+            if (plan.videoFilter != null && !overlay) {
+                args.add("-vf");
+                args.add(plan.videoFilter);
+            }
+            args.add("-c:v");
+            args.add("auto".equals(job.videoCodec) ? "libx264" : job.videoCodec);
+            args.add("-preset");
+            args.add(job.preset);
+            args.add("-crf");
+            args.add(String.valueOf(job.crf));
+            if (job.threads > 0) {
+                args.add("-threads");
+                args.add(String.valueOf(job.threads));
+            }
+        }
+
+        args.add("-c:a");
+        args.add(plan.copyAudio ? "copy" : ("auto".equals(job.audioCodec) ? "aac" : job.audioCodec));
+
+        if (plan.copyVideo || plan.copyAudio) {
+            args.add("-avoid_negative_ts");
+            args.add("make_zero");
+        }
+
+        args.add("-movflags");
+        args.add("+faststart");
+        args.add(job.output);
+        return plan;
+    }
+
+    /**
+     * Decode the range once and split the frames into every variant that
+     * needs filtering or re-encoding; variants that can take the video as is
+     * are stream-copied and never touch the decoder. The range is set on the
+     * input side (-ss and -t before -i), so every output gets the same one,
+     * except that a copied variant starts at the keyframe before start (see
+     * FanOutJob.startOnKeyframe).
+     */
+    static FanOutPlan planFanOut(FanOutJob job) {
+        if (job.input == null || job.variants.isEmpty()) {
+            throw new IllegalArgumentException("Input and at least one output are required");
+        }
+        if (job.start >= 0 && job.end >= 0 && job.end <= job.start) {
+            throw new IllegalArgumentException("End must be after start");
+        }
+
+        int count = job.variants.size();
+        FanOutPlan plan = new FanOutPlan();
+        plan.copyVideo = new boolean[count];
+        String[] chains = new String[count];
+        for (int i = 0; i < count; i++) {
+            Variant variant = job.variants.get(i);
+            if (variant.output == null) {
+                throw new IllegalArgumentException("Output " + i + " has no path");
+            }
+            chains[i] = buildVariantFilter(variant);
+            plan.copyVideo[i] = chooseCopy(variant.videoCodec, chains[i] != null, "video")
+                && (job.startOnKeyframe || "copy".equals(variant.videoCodec));
+            if (!plan.copyVideo[i]) {
+                plan.decodedVariants++;
+            }
+        }
+
+        List<String> args = plan.arguments;
+        args.add("-y");
+        if (job.start > 0) {
+            args.add("-ss");
+            args.add(formatSeconds(job.start));
+        }
+        if (job.end >= 0) {
+            args.add("-t");
+            args.add(formatSeconds(job.end - Math.max(0, job.start)));
+        }
+        args.add("-i");
+        args.add(job.input);
+
+        // A filtergraph input can only be consumed once, so each overlay gets its own PNG input
+        int[] imageInput = new int[count];
+        int nextInput = 1;
+        for (int i = 0; i < count; i++) {
+            Variant variant = job.variants.get(i);
+            if (!plan.copyVideo[i] && variant.watermark != null && variant.watermark.image != null) {
+                imageInput[i] = nextInput++;
+                args.add("-i");
+                args.add(variant.watermark.image);
+            }
+        }
+
+        if (plan.decodedVariants > 0) {
+            StringBuilder graph = new StringBuilder("[0:v:0]");
+            if (plan.decodedVariants > 1) {
+                graph.append("split=").append(plan.decodedVariants);
+                for (int i = 0; i < count; i++) {
+                    if (!plan.copyVideo[i]) {
+                        graph.append("[s").append(i).append(']');
+                    }
+                }
+                graph.append(';');
+            }
+            boolean first = true;
+            for (int i = 0; i < count; i++) {
+                if (plan.copyVideo[i]) {
+                    continue;
+                }
+                if (plan.decodedVariants > 1) {
+                    if (!first) {
+                        graph.append(';');
+                    }
+                    graph.append("[s").append(i).append(']');
+                }
+                first = false;
+
+                Variant variant = job.variants.get(i);
+                String chain = chains[i];
+                if (imageInput[i] > 0) {
+                    graph.append(chain).append("[b").append(i).append("];")
+                        .append("[b").append(i).append("][").append(imageInput[i]).append(":v]overlay=")
+                        .append(overlayPosition(variant.watermark.position));
+                } else {
+                    // Re-encoded without filters (e.g. a different codec or CRF): pass through
+                    graph.append(chain != null ? chain : "null");
+                }
+                graph.append("[v").append(i).append(']');
+            }
+            plan.filterGraph = graph.toString();
+            args.add("-filter_complex");
+            args.add(plan.filterGraph);
+        }
+
+        for (int i = 0; i < count; i++) {
+            Variant variant = job.variants.get(i);
+            boolean copyAudio = chooseCopy(variant.audioCodec, false, "audio");
+
+            args.add("-map");
+            args.add(plan.copyVideo[i] ? "0:v:0" : "[v" + i + "]");
+            args.add("-map");
+            args.add("0:a?");
+            if (plan.copyVideo[i]) {
+                args.add("-c:v");
+                args.add("copy");
+            } else {
+                args.add("-c:v");
+                args.add("auto".equals(variant.videoCodec) ? "libx264" : variant.videoCodec);
+                args.add("-preset");
+                args.add(variant.preset);
+                args.add("-crf");
+                args.add(String.valueOf(variant.crf));
+            }
+            args.add("-c:a");
+            args.add(copyAudio ? "copy" : ("auto".equals(variant.audioCodec) ? "aac" : variant.audioCodec));
+            if (plan.copyVideo[i] || copyAudio) {
+                args.add("-avoid_negative_ts");
+                args.add("make_zero");
+            }
+            args.add("-movflags");
+            args.add("+faststart");
+            args.add(variant.output);
+        }
+        return plan;
+    }
+
+    /** crop, scale and drawtext for one variant, in that order; null when the frames pass through untouched. */
+    static String buildVariantFilter(Variant variant) {
+        StringBuilder filters = new StringBuilder();
+        if (variant.crop) {
+            filters.append(CROP_9_16);
+        }
+        if (variant.height > 0) {
+            if (filters.length() > 0) {
+                filters.append(',');
+            }
+            // Most encoders (4:2:0) reject an odd height
+            filters.append("scale=-2:").append(Math.max(2, variant.height / 2 * 2));
+        }
+        boolean overlay = variant.watermark != null && variant.watermark.image != null;
+        if (!overlay && variant.watermark != null && variant.watermark.textFile != null) {
+            if (filters.length() > 0) {
+                filters.append(',');
+            }
+            filters.append(buildDrawtext(variant.watermark));
+        }
+        if (filters.length() == 0) {
+            // An overlay still needs the decode, even with nothing else to do
+            return overlay ? "null" : null;
+        }
+        return filters.toString();
+    }
+
+    /**
+     * Canonical description of what a plan produces, for OutputManifest keys:
+     * the planned arguments with the input and output paths left out, so
+     * defaults are already filled in and unused settings (preset/crf on a
+     * stream copy) don't split otherwise identical clips.
+     */
+    static String settingsKey(Job job, Plan plan) {
+        StringBuilder key = new StringBuilder();
+        for (String arg : plan.arguments) {
+            if (arg.equals(job.input)) {
+                key.append("<in>");
+            } else if (arg.equals(job.output)) {
+                key.append("<out>");
+            } else {
+                key.append(arg);
+            }
+            key.append('\n');
+        }
+        return key.toString();
+    }
+
+    static String buildVideoFilter(Job job) {
+        if (job.watermark != null && job.watermark.image != null) {
+            // The PNG is input #1; it has a single frame, which overlay repeats
+            String base = job.crop ? "[0:v:0]" + CROP_9_16 + "[base];[base]" : "[0:v:0]";
+            return base + "[1:v]overlay=" + overlayPosition(job.watermark.position) + "[v]";
+        }
+
+        StringBuilder filters = new StringBuilder();
+
+        if (job.crop) {
+            filters.append(CROP_9_16);
+        }
+
+        if (job.watermark != null && job.watermark.textFile != null) {
+            if (filters.length() > 0) {
+                filters.append(',');
+            }
+            filters.append(buildDrawtext(job.watermark));
+        }
+
+        return filters.length() == 0 ? null : filters.toString();
+    }
+
+    /**
+     * Same look as the web builder's drawtext. The text is read from a file so
+     * user input never has to survive filtergraph escaping.
+     */
+    static String buildDrawtext(Watermark watermark) {
+        String yPos;
+        switch (watermark.position) {
+            case "top": yPos = "h*0.15"; break;
+            case "bottom": yPos = "h*0.85-th"; break;
+            default: yPos = "(h-th)/2";
+        }
+
+        StringBuilder drawtext = new StringBuilder("drawtext=");
+        if (watermark.fontFile != null) {
+            drawtext.append("fontfile=").append(watermark.fontFile).append(':');
+        }
+        drawtext.append("textfile=").append(watermark.textFile)
+            .append(":expansion=none")
+            .append(":fontsize=").append(watermark.fontSize)
+            .append(":fontcolor=white@0.6:x=(w-tw)/2:y=").append(yPos)
+            .append(":box=1:boxcolor=black@0.4:boxborderw=5");
+        return drawtext.toString();
+    }
+
+    /** overlay x/y that put the PNG (text plus 5 px box border) where drawtext put the text. */
+    static String overlayPosition(String position) {
+        String y;
+        switch (position) {
+            case "top": y = "H*0.15-5"; break;
+            case "bottom": y = "H*0.85-h+5"; break;
+            default: y = "(H-h)/2";
+        }
+        return "x=(W-w)/2:y=" + y;
+    }
+
+    private static boolean chooseCopy(String policy, boolean filtered, String stream) {
+        if ("copy".equals(policy)) {
+            if (filtered) {
+                throw new IllegalArgumentException("Cannot stream-copy " + stream + " when a filter is applied");
+            }
+            return true;
+        }
+        return "auto".equals(policy) && !filtered;
+    }
+
+    /** Seconds as FFmpeg takes them (-ss, -t), to the millisecond; negatives clamp to 0. */
+    static String formatSeconds(double seconds) {
+        return formatSeconds(seconds, 3);
+    }
+
+    static String formatSeconds(double seconds, int decimals) {
+        return String.format(Locale.US, "%." + decimals + "f", Math.max(0, seconds));
+    }
+}
@@ -0,0 +1,348 @@
+package com.klipper.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.arthenica.ffmpegkit.FFmpegKitConfig;
+import com.arthenica.ffmpegkit.FFmpegSession;
+import com.arthenica.ffmpegkit.Statistics;
+
+/**
+ * Measured encoder throughput for this device, per input class, so jobs can
+ * pick the slowest (best compressing) preset that still meets a target speed
+ * instead of a fixed "fast" that is too slow on low-end phones and leaves
+ * quality unused on fast ones.
+ *
+ * Calibration encodes a few seconds from the middle of the actual input once
+ * per preset, fastest first, and records the realtime factor and the bitrate
+ * each one reached at the same CRF. The profile is keyed by input class
+ * (codec, resolution and frame rate buckets, crop), encoder and CRF (encode
+ * speed depends on it), and is ignored once it is old or was measured with
+ * a different FFmpeg build or core count.
+ */
+final class EncoderCalibration {
+
+    private static final String TAG = "EncoderCalibration";
+
+    /** Presets tried, fastest first; slower ones than medium are never worth it on a phone. */
+    static final String[] PRESETS = { "ultrafast", "superfast", "veryfast", "faster", "fast", "medium" };
+
+    static final double DEFAULT_SAMPLE_SECONDS = 3;
+    /** Realtime: a clip takes about as long to encode as to watch. */
+    static final double DEFAULT_TARGET_SPEED = 1.0;
+    /** Stop trying slower presets once one drops below this realtime factor. */
+    private static final double MIN_USEFUL_SPEED = 0.2;
+    /** Margin on the target, for the sample's startup cost and thermal throttling on long jobs. */
+    private static final double HEADROOM = 1.1;
+    private static final long MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+
+    private static final int[] HEIGHT_BUCKETS = { 480, 720, 1080, 1440, 2160 };
+
+    static class Sample {
+        String preset;
+        /** Media seconds encoded per wall-clock second, with the encoder's default thread count. */
+        double speed;
+        long bytes;
+        long kbps;
+    }
+
+    /** A chosen preset and thread count, and the speed the profile expects from them. */
+    static class Choice {
+        String preset;
+        /** 0 leaves the thread count to the encoder. */
+        int threads;
+        double expectedSpeed;
+        boolean meetsTarget;
+        boolean calibrated;
+    }
+
+    interface Listener {
+        void onSample(int index, int total, Sample sample);
+    }
+
+    static class Profile {
+        final String inputClass;
+        final String encoder;
+        int crf;
+        int cores;
+        String ffmpegVersion;
+        long measuredAt;
+        final List<Sample> samples = new ArrayList<>();
+
+        Profile(String inputClass, String encoder) {
+            this.inputClass = inputClass;
+            this.encoder = encoder;
+        }
+
+        /**
+         * The slowest preset whose expected speed still meets targetSpeed, or
+         * the fastest one if none does. With several jobs encoding at once,
+         * each gets an even share of the cores and its speed is scaled down
+         * linearly from the measured one (pessimistic: fewer threads per
+         * encode are used more efficiently).
+         */
+        Choice choose(double targetSpeed, int parallelJobs) {
+            int jobs = Math.max(1, parallelJobs);
+            int threads = jobs > 1 ? Math.max(1, cores / jobs) : 0;
+            double scale = jobs > 1 ? (double) threads / Math.max(1, cores) : 1;
+
+            Choice choice = new Choice();
+            choice.calibrated = true;
+            choice.threads = threads;
+            for (Sample sample : samples) {
+                double expected = sample.speed * scale;
+                if (choice.preset == null || expected >= targetSpeed * HEADROOM) {
+                    choice.preset = sample.preset;
+                    choice.expectedSpeed = expected;
+                    choice.meetsTarget = expected >= targetSpeed * HEADROOM;
+                }
+            }
+            return choice;
+        }
+
+        boolean isCurrent() {
+            return !samples.isEmpty()
+                && System.currentTimeMillis() - measuredAt < MAX_AGE_MS
+                && cores == Runtime.getRuntime().availableProcessors()
+                && equal(ffmpegVersion, FFmpegKitConfig.getFFmpegVersion());
+        }
+
+        void save(File cacheDir) throws IOException {
+            File file = cacheFile(cacheDir, inputClass, encoder, crf);
+            File dir = file.getParentFile();
+            if (dir != null && !dir.exists()) {
+                dir.mkdirs();
+            }
+
+            File temp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(toJson().toString().getBytes(StandardCharsets.UTF_8));
+            } catch (JSONException e) {
+                temp.delete();
+                throw new IOException(e.getMessage());
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Cannot write " + file.getName());
+            }
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("inputClass", inputClass);
+            json.put("encoder", encoder);
+            json.put("crf", crf);
+            json.put("cores", cores);
+            json.put("ffmpegVersion", ffmpegVersion);
+            json.put("measuredAt", measuredAt);
+
+            JSONArray list = new JSONArray();
+            for (Sample sample : samples) {
+                JSONObject item = new JSONObject();
+                item.put("preset", sample.preset);
+                item.put("speed", sample.speed);
+                item.put("bytes", sample.bytes);
+                item.put("kbps", sample.kbps);
+                list.put(item);
+            }
+            json.put("samples", list);
+            return json;
+        }
+    }
+
+    private EncoderCalibration() {
+    }
+
+    /** Whether calibration knows how to drive this encoder's -preset/-crf. */
+    static boolean supports(String encoder) {
+        return "libx264".equals(encoder) || "libx265".equals(encoder);
+    }
+
+    /**
+     * Bucket an input by what drives encode cost: source codec (decode),
+     * the shorter side rounded up to a common height, 30 or 60 fps, and
+     * whether the 9:16 crop shrinks the frame. E.g. "h264_1080p30_crop".
+     */
+    static String inputClass(MediaProbe probe, boolean crop) {
+        MediaProbe.Stream video = probe.video();
+        if (video == null) {
+            return null;
+        }
+        int shortSide = Math.min(video.width, video.height);
+        int height = HEIGHT_BUCKETS[HEIGHT_BUCKETS.length - 1];
+        for (int bucket : HEIGHT_BUCKETS) {
+            if (shortSide <= bucket) {
+                height = bucket;
+                break;
+            }
+        }
+        int fps = video.frameRate > 40 ? 60 : 30;
+        return (video.codec != null ? video.codec : "unknown") + "_" + height + "p" + fps + (crop ? "_crop" : "");
+    }
+
+    static File cacheFile(File cacheDir, String inputClass, String encoder, int crf) {
+        return new File(new File(cacheDir, "calibration"), key(inputClass, encoder, crf) + ".json");
+    }
+
+    /** Identifies a profile: e.g. "h264_1080p30_crop_libx264_crf23". */
+    static String key(String inputClass, String encoder, int crf) {
+        return inputClass + "_" + encoder + "_crf" + crf;
+    }
+
+    /** The stored profile for a class, encoder and CRF, or null if there is none or it is stale. */
+    static Profile load(File cacheDir, String inputClass, String encoder, int crf) {
+        File file = cacheFile(cacheDir, inputClass, encoder, crf);
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            Profile profile = fromJson(inputClass, encoder,
+                new JSONObject(new String(data, 0, read, StandardCharsets.UTF_8)));
+            if (!profile.isCurrent() || profile.crf != crf) {
+                Log.d(TAG, "Discarding stale calibration " + file.getName());
+                file.delete();
+                return null;
+            }
+            return profile;
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Discarding unreadable calibration " + file.getName() + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Encode sampleSeconds from the middle of the input with each preset in
+     * turn, video only, to a temporary file in workDir. Each run resolves the
+     * input again since SAF parameters are single-use.
+     */
+    static Profile calibrate(Context context, String input, MediaProbe probe, boolean crop, String encoder,
+                             int crf, double sampleSeconds, File workDir, Listener listener) throws IOException {
+        String inputClass = inputClass(probe, crop);
+        if (inputClass == null) {
+            throw new IOException("Input has no video stream");
+        }
+        if (!supports(encoder)) {
+            throw new IOException("Cannot calibrate encoder " + encoder);
+        }
+
+        double length = Math.min(Math.max(0.5, sampleSeconds), probe.duration > 0 ? probe.duration : sampleSeconds);
+        double start = Math.max(0, probe.duration / 2 - length / 2);
+
+        Profile profile = new Profile(inputClass, encoder);
+        profile.crf = crf;
+        profile.cores = Runtime.getRuntime().availableProcessors();
+        profile.ffmpegVersion = FFmpegKitConfig.getFFmpegVersion();
+
+        File temp = new File(workDir, "calibrate_" + System.nanoTime() + ".mp4");
+        try {
+            for (int i = 0; i < PRESETS.length; i++) {
+                List<String> args = new ArrayList<>(Arrays.asList(
+                    "-y",
+                    "-ss", CommandPlanner.formatSeconds(start), "-i", FFmpegPlugin.resolveInput(context, input),
+                    "-t", CommandPlanner.formatSeconds(length),
+                    "-map", "0:v:0"
+                ));
+                if (crop) {
+                    args.add("-vf");
+                    args.add(CommandPlanner.CROP_9_16);
+                }
+                args.addAll(Arrays.asList(
+                    "-an",
+                    "-c:v", encoder, "-preset", PRESETS[i], "-crf", String.valueOf(crf),
+                    "-f", "mp4", temp.getAbsolutePath()
+                ));
+
+                long startTime = System.nanoTime();
+                FFmpegSession session = FFmpegPlugin.runOrThrow(args);
+                long nanos = Math.max(1, System.nanoTime() - startTime);
+
+                // Prefer FFmpeg's own output time: the sample may end early on a short input
+                Statistics statistics = session.getLastReceivedStatistics();
+                double encoded = statistics != null && statistics.getTime() > 0
+                    ? statistics.getTime() / 1000.0 : length;
+
+                Sample sample = new Sample();
+                sample.preset = PRESETS[i];
+                sample.speed = encoded * 1e9 / nanos;
+                sample.bytes = temp.length();
+                sample.kbps = (long) (sample.bytes * 8 / 1000.0 / encoded);
+                profile.samples.add(sample);
+
+                Log.d(TAG, inputClass + " " + encoder + " " + sample.preset + ": "
+                    + String.format(Locale.US, "%.2fx, %d kbps", sample.speed, sample.kbps));
+                if (listener != null) {
+                    listener.onSample(i, PRESETS.length, sample);
+                }
+                if (sample.speed < MIN_USEFUL_SPEED) {
+                    break;
+                }
+            }
+        } finally {
+            temp.delete();
+        }
+
+        profile.measuredAt = System.currentTimeMillis();
+        return profile;
+    }
+
+    /** The settings to use when there is no profile: the old fixed preset. */
+    static Choice uncalibrated() {
+        Choice choice = new Choice();
+        choice.preset = "fast";
+        return choice;
+    }
+
+    private static Profile fromJson(String inputClass, String encoder, JSONObject json) {
+        Profile profile = new Profile(inputClass, encoder);
+        profile.crf = json.optInt("crf", 23);
+        profile.cores = json.optInt("cores");
+        profile.ffmpegVersion = json.optString("ffmpegVersion", null);
+        profile.measuredAt = json.optLong("measuredAt");
+
+        JSONArray list = json.optJSONArray("samples");
+        for (int i = 0; list != null && i < list.length(); i++) {
+            JSONObject item = list.optJSONObject(i);
+            if (item == null) {
+                continue;
+            }
+            Sample sample = new Sample();
+            sample.preset = item.optString("preset", null);
+            sample.speed = item.optDouble("speed", 0);
+            sample.bytes = item.optLong("bytes");
+            sample.kbps = item.optLong("kbps");
+            if (sample.preset != null) {
+                profile.samples.add(sample);
+            }
+        }
+        return profile;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -13,10 +13,12 @@ import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
 import android.os.PowerManager;
 import android.provider.MediaStore;
 import android.provider.OpenableColumns;
 import android.provider.Settings;
+import android.util.Base64;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
@@ -26,15 +28,32 @@ import androidx.core.content.ContextCompat;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 import com.arthenica.ffmpegkit.FFmpegKit;
+import com.arthenica.ffmpegkit.FFmpegKitConfig;
 import com.arthenica.ffmpegkit.FFmpegSession;
+import com.arthenica.ffmpegkit.Level;
 import com.arthenica.ffmpegkit.ReturnCode;
 import com.arthenica.ffmpegkit.Statistics;
 import com.arthenica.ffmpegkit.StatisticsCallback;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
@@ -61,14 +80,60 @@ public class FFmpegPlugin extends Plugin {
     private static final int PERMISSION_REQUEST_CODE = 1001;
     private static final String CHANNEL_ID = "klipper_processing";
     private static final int NOTIFICATION_ID = 1;
+    private static final int DEFAULT_LOG_TAIL = 50;
+    private static final Pattern CONTENT_URI_PATTERN = Pattern.compile("content://[^\"'\\s]+");
     
     private PowerManager.WakeLock wakeLock;
     private NotificationManager notificationManager;
+    private NotificationCompat.Builder notificationBuilder;
+    private volatile boolean notificationActive;
+    private volatile String notificationText = "";
+    private JobEngine jobEngine;
+    private final LogCapture logCapture = new LogCapture();
+    private InputCache inputCache;
+    private ThumbnailCache thumbnailCache;
+    private ProxyStore proxyStore;
+    private LoopbackServer loopbackServer;
+    private final Map<String, Long> proxyJobs = new ConcurrentHashMap<>();
+    private volatile ClipPipeline activePipeline;
+    private final Map<String, KeyframeIndex> keyframeIndexes = new ConcurrentHashMap<>();
+    private final Map<String, MediaProbe> probes = new ConcurrentHashMap<>();
+    private final Map<String, EncoderCalibration.Profile> encoderProfiles = new ConcurrentHashMap<>();
     
     @Override
     public void load() {
         super.load();
         createNotificationChannel();
+        
+        // Capture every session's log into bounded rings and keep FFmpegKit's
+        // own (unbounded per session) history short
+        FFmpegKitConfig.enableLogCallback(logCapture::onLog);
+        FFmpegKitConfig.setSessionHistorySize(LogCapture.DEFAULT_MAX_SESSIONS);
+        
+        // Pick up any batch the service didn't get to finish before the app died
+        ProcessingService.setListener(batchListener);
+        try {
+            ProcessingService.startIfPending(getContext());
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to resume batches: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    protected void handleOnDestroy() {
+        synchronized (this) {
+            if (jobEngine != null) {
+                jobEngine.shutdown();
+                jobEngine = null;
+            }
+        }
+        synchronized (this) {
+            if (loopbackServer != null) {
+                loopbackServer.stop();
+            }
+        }
+        ProcessingService.setListener(null);
+        super.handleOnDestroy();
     }
     
     private void createNotificationChannel() {
@@ -115,17 +180,9 @@ public class FFmpegPlugin extends Plugin {
             int current = call.getInt("current", 0);
             int total = call.getInt("total", 0);
             
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(getContext(), CHANNEL_ID)
-                .setSmallIcon(android.R.drawable.ic_menu_save)
-                .setContentTitle("Memproses Video")
-                .setContentText("Part " + current + "/" + total)
-                .setProgress(100, progress, false)
-                .setOngoing(true)
-                .setPriority(NotificationCompat.PRIORITY_LOW);
-            
-            if (notificationManager != null) {
-                notificationManager.notify(NOTIFICATION_ID, builder.build());
-            }
+            notificationText = "Part " + current + "/" + total;
+            notificationActive = true;
+            updateProgressNotification(progress, null);
             
             JSObject result = new JSObject();
             result.put("success", true);
@@ -139,9 +196,68 @@ public class FFmpegPlugin extends Plugin {
         }
     }
     
+    /**
+     * One builder is kept and only its progress/text are changed, instead of
+     * building a new notification on every update.
+     */
+    private synchronized void updateProgressNotification(int progress, String subText) {
+        if (notificationManager == null) {
+            return;
+        }
+        if (notificationBuilder == null) {
+            notificationBuilder = new NotificationCompat.Builder(getContext(), CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_menu_save)
+                .setContentTitle("Memproses Video")
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW);
+        }
+        notificationBuilder
+            .setContentText(notificationText)
+            .setSubText(subText)
+            .setProgress(100, progress, false);
+        notificationManager.notify(NOTIFICATION_ID, notificationBuilder.build());
+    }
+    
+    /**
+     * Set how often coalesced progress events (ffmpegProgress/jobProgress and
+     * the notification) may fire per job.
+     */
+    @PluginMethod
+    public void configureProgress(PluginCall call) {
+        progressAggregator.setIntervalMs(call.getLong("intervalMs", ProgressAggregator.DEFAULT_INTERVAL_MS));
+        
+        JSObject result = new JSObject();
+        result.put("intervalMs", progressAggregator.getIntervalMs());
+        call.resolve(result);
+    }
+    
+    /** Single sink for coalesced progress: drives both the WebView event and the notification. */
+    private final ProgressAggregator progressAggregator = new ProgressAggregator(snapshot -> {
+        JobEngine engine = jobEngine;
+        boolean isJob = engine != null && engine.get(snapshot.jobId) != null;
+        
+        JSObject progress = new JSObject();
+        progress.put(isJob ? "jobId" : "sessionId", snapshot.jobId);
+        progress.put("time", snapshot.timeMs);
+        progress.put("size", snapshot.size);
+        progress.put("bitrate", snapshot.bitrate);
+        progress.put("speed", snapshot.speed);
+        progress.put("percent", snapshot.percent);
+        progress.put("eta", snapshot.etaSeconds);
+        progress.put("done", snapshot.done);
+        notifyListeners(isJob ? "jobProgress" : "ffmpegProgress", progress);
+        
+        if (notificationActive && snapshot.percent >= 0) {
+            String eta = snapshot.etaSeconds >= 0 ? "sisa ~" + Math.round(snapshot.etaSeconds) + " detik" : null;
+            updateProgressNotification((int) snapshot.percent, eta);
+        }
+    });
+    
     @PluginMethod
     public void hideProgressNotification(PluginCall call) {
         try {
+            notificationActive = false;
             if (notificationManager != null) {
                 notificationManager.cancel(NOTIFICATION_ID);
             }
@@ -192,16 +308,25 @@ public class FFmpegPlugin extends Plugin {
         call.resolve(result);
     }
     
+    /**
+     * Prepare a picked video for FFmpeg.
+     * mode "copy" (default) copies into the managed input cache, or reuses an
+     * earlier copy of the same content (inputMode "cache"). mode "auto" hands
+     * the content:// URI straight to FFmpeg through the SAF protocol when its
+     * descriptor is seekable, and only copies when it is not. The result's
+     * inputMode tells which path was taken ("saf", "cache" or "copy").
+     */
     @PluginMethod
     public void copyToCache(PluginCall call) {
         String contentUri = call.getString("uri");
+        String mode = call.getString("mode", "copy");
         
         if (contentUri == null || contentUri.isEmpty()) {
             call.reject("URI is required");
             return;
         }
         
-        Log.d(TAG, "Copying to cache: " + contentUri);
+        Log.d(TAG, "Preparing input (" + mode + "): " + contentUri);
         
         try {
             Uri uri = Uri.parse(contentUri);
@@ -218,28 +343,80 @@ public class FFmpegPlugin extends Plugin {
                 cursor.close();
             }
             
-            // Copy to cache
-            File cacheDir = getContext().getCacheDir();
-            File outputFile = new File(cacheDir, "ffmpeg_input_" + System.currentTimeMillis() + ".mp4");
+            // Zero-copy: FFmpeg reads the descriptor directly, nothing lands in cache
+            if ("auto".equals(mode) && isSeekable(resolver, uri)) {
+                Log.d(TAG, "Descriptor is seekable, using SAF input");
+                
+                JSObject result = new JSObject();
+                result.put("success", true);
+                result.put("path", contentUri);
+                result.put("originalName", filename);
+                result.put("inputMode", "saf");
+                call.resolve(result);
+                return;
+            }
             
-            InputStream input = resolver.openInputStream(uri);
-            OutputStream output = new FileOutputStream(outputFile);
+            // Copy to cache, reusing an earlier copy of the same content when there is one
+            InputCache cache = getInputCache();
+            String fingerprint = null;
+            try {
+                fingerprint = InputFingerprint.of(getContext(), contentUri);
+            } catch (IOException e) {
+                Log.d(TAG, "Cannot fingerprint input, copying uncached: " + e.getMessage());
+            }
             
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = input.read(buffer)) != -1) {
-                output.write(buffer, 0, bytesRead);
+            if (fingerprint != null) {
+                File cached = cache.lookup(fingerprint);
+                if (cached != null) {
+                    Log.d(TAG, "Input cache hit: " + cached.getAbsolutePath());
+                    
+                    JSObject result = new JSObject();
+                    result.put("success", true);
+                    result.put("path", cached.getAbsolutePath());
+                    result.put("originalName", filename);
+                    result.put("inputMode", "cache");
+                    result.put("fingerprint", fingerprint);
+                    result.put("bytes", cached.length());
+                    call.resolve(result);
+                    return;
+                }
             }
             
-            output.close();
-            input.close();
+            File outputFile = fingerprint != null
+                ? cache.entryFile(fingerprint)
+                : cache.entryFile("stream_" + System.currentTimeMillis());
+            File tempFile = fingerprint != null ? cache.tempFile(fingerprint) : outputFile;
+            
+            long bytes;
+            long copyStart = System.nanoTime();
+            // A trimCache() while this copy runs must not sweep it as abandoned
+            InputCache.pin(tempFile);
+            try (InputStream input = resolver.openInputStream(uri);
+                 FileOutputStream output = new FileOutputStream(tempFile)) {
+                bytes = StreamCopy.transferFully(input, output.getChannel());
+            } catch (IOException e) {
+                // Never leave a partial copy where a later lookup could take it for the input
+                tempFile.delete();
+                throw e;
+            } finally {
+                InputCache.unpin(tempFile);
+            }
+            Metrics.get().record(Metrics.COPY, System.nanoTime() - copyStart, bytes, 0);
+            if (tempFile != outputFile && !tempFile.renameTo(outputFile)) {
+                tempFile.delete();
+                throw new IOException("Cannot finish cache entry " + outputFile.getName());
+            }
+            cache.trim(outputFile);
             
-            Log.d(TAG, "Copied to: " + outputFile.getAbsolutePath());
+            Log.d(TAG, "Copied " + bytes + " bytes to: " + outputFile.getAbsolutePath());
             
             JSObject result = new JSObject();
             result.put("success", true);
             result.put("path", outputFile.getAbsolutePath());
             result.put("originalName", filename);
+            result.put("fingerprint", fingerprint);
+            result.put("inputMode", "copy");
+            result.put("bytes", bytes);
             call.resolve(result);
             
         } catch (Exception e) {
@@ -251,6 +428,129 @@ public class FFmpegPlugin extends Plugin {
         }
     }
     
+    @PluginMethod
+    public void getCacheStats(PluginCall call) {
+        InputCache.Stats stats = getInputCache().stats();
+        
+        JSObject result = new JSObject();
+        result.put("entries", stats.entries);
+        result.put("bytes", stats.bytes);
+        result.put("maxBytes", stats.maxBytes);
+        result.put("hits", stats.hits);
+        result.put("misses", stats.misses);
+        result.put("evictions", stats.evictions);
+        result.put("evictedBytes", stats.evictedBytes);
+        call.resolve(result);
+    }
+    
+    /**
+     * Evict least recently used inputs down to "maxBytes" (default: the
+     * configured budget; 0 empties the cache). "budget" changes the budget
+     * used from now on.
+     */
+    @PluginMethod
+    public void trimCache(PluginCall call) {
+        InputCache cache = getInputCache();
+        Long budget = call.getLong("budget");
+        if (budget != null) {
+            cache.setMaxBytes(budget);
+        }
+        
+        long freed = cache.trim(call.getLong("maxBytes", cache.getMaxBytes()), null);
+        
+        JSObject result = new JSObject();
+        result.put("freedBytes", freed);
+        result.put("maxBytes", cache.getMaxBytes());
+        result.put("bytes", cache.stats().bytes);
+        call.resolve(result);
+    }
+    
+    private synchronized InputCache getInputCache() {
+        if (inputCache == null) {
+            inputCache = new InputCache(getContext().getCacheDir());
+        }
+        return inputCache;
+    }
+    
+    private synchronized ProxyStore getProxyStore() {
+        if (proxyStore == null) {
+            proxyStore = new ProxyStore(getContext().getCacheDir());
+        }
+        return proxyStore;
+    }
+    
+    private synchronized ThumbnailCache getThumbnailCache() {
+        if (thumbnailCache == null) {
+            thumbnailCache = new ThumbnailCache(getContext().getCacheDir(), ThumbnailCache.DEFAULT_MEMORY_BYTES);
+        }
+        return thumbnailCache;
+    }
+    
+    /**
+     * A descriptor is usable by FFmpeg without copying only if it has a known
+     * size and supports random access (pipes and some cloud providers don't).
+     */
+    static boolean isSeekable(ContentResolver resolver, Uri uri) {
+        try (ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r")) {
+            if (pfd == null || pfd.getStatSize() <= 0) {
+                return false;
+            }
+            // Not closed on purpose: the stream doesn't own the descriptor, pfd does
+            FileChannel channel = new FileInputStream(pfd.getFileDescriptor()).getChannel();
+            channel.position(pfd.getStatSize() - 1);
+            channel.position(0);
+            return true;
+        } catch (Exception e) {
+            Log.d(TAG, "Descriptor not seekable: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Turn content:// inputs into fresh SAF protocol parameters.
+     * A SAF parameter is closed by FFmpegKit when its session ends, so one must
+     * be created per session rather than handed to the web layer.
+     */
+    private String resolveInput(String input) {
+        return resolveInput(getContext(), input);
+    }
+    
+    static String resolveInput(Context context, String input) {
+        if (input != null && input.startsWith("content://")) {
+            return FFmpegKitConfig.getSafParameterForRead(context, Uri.parse(input));
+        }
+        return input;
+    }
+    
+    /** Run FFmpeg synchronously; any non-success return code becomes an IOException. */
+    static FFmpegSession runOrThrow(List<String> args) throws IOException {
+        long startTime = System.nanoTime();
+        FFmpegSession session = FFmpegKit.executeWithArguments(args.toArray(new String[0]));
+        Metrics.get().recordSession(session, System.nanoTime() - startTime);
+        if (ReturnCode.isCancel(session.getReturnCode())) {
+            throw new IOException("Command cancelled");
+        }
+        if (!ReturnCode.isSuccess(session.getReturnCode())) {
+            String output = session.getOutput();
+            String errorMsg = "FFmpeg failed with return code " + session.getReturnCode().getValue();
+            if (output != null && !output.isEmpty()) {
+                errorMsg += ". Output: " + output.substring(Math.max(0, output.length() - 500));
+            }
+            throw new IOException(errorMsg);
+        }
+        return session;
+    }
+    
+    private String resolveCommandInputs(String command) {
+        Matcher matcher = CONTENT_URI_PATTERN.matcher(command);
+        StringBuffer resolved = new StringBuffer();
+        while (matcher.find()) {
+            matcher.appendReplacement(resolved, Matcher.quoteReplacement(resolveInput(matcher.group())));
+        }
+        matcher.appendTail(resolved);
+        return resolved.toString();
+    }
+    
     @PluginMethod
     public void execute(PluginCall call) {
         String command = call.getString("command");
@@ -264,37 +564,44 @@ public class FFmpegPlugin extends Plugin {
         
         try {
             // Execute FFmpeg command
-            FFmpegSession session = FFmpegKit.execute(command);
+            long startTime = System.nanoTime();
+            FFmpegSession session = FFmpegKit.execute(resolveCommandInputs(command));
+            Metrics.get().recordSession(session, System.nanoTime() - startTime);
             
             JSObject result = new JSObject();
             int returnCode = session.getReturnCode().getValue();
-            String output = session.getOutput();
+            
+            // Only a bounded tail of the captured log crosses the bridge; the rest
+            // can be fetched with getJobLogs(sessionId) if needed
+            LogCapture.Ring ring = logCapture.get(session.getSessionId());
+            String logs = ring != null ? ring.tailAsString(call.getInt("logTail", DEFAULT_LOG_TAIL)) : "";
             
             result.put("returnCode", returnCode);
-            result.put("logs", output != null ? output : "");
+            result.put("sessionId", session.getSessionId());
+            result.put("logs", logs);
             
             if (ReturnCode.isSuccess(session.getReturnCode())) {
                 result.put("success", true);
-                result.put("output", output);
-                Log.d(TAG, "FFmpeg success. Output: " + (output != null ? output.substring(0, Math.min(500, output.length())) : "null"));
+                result.put("output", logs);
+                Log.d(TAG, "FFmpeg success (session " + session.getSessionId() + ")");
             } else if (ReturnCode.isCancel(session.getReturnCode())) {
                 result.put("success", false);
                 result.put("error", "Command cancelled");
                 Log.d(TAG, "FFmpeg cancelled");
             } else {
                 String stackTrace = session.getFailStackTrace();
+                String lastError = ring != null ? ring.getLastError() : null;
                 String errorMsg = "FFmpeg failed with return code " + returnCode;
                 
                 if (stackTrace != null && !stackTrace.isEmpty()) {
                     errorMsg += ": " + stackTrace;
-                } else if (output != null && !output.isEmpty()) {
-                    // Get last 500 chars of output for error message
-                    int start = Math.max(0, output.length() - 500);
-                    errorMsg += ". Output: " + output.substring(start);
+                } else if (lastError != null) {
+                    errorMsg += ": " + lastError;
                 }
                 
                 result.put("success", false);
                 result.put("error", errorMsg);
+                result.put("errorLine", lastError);
                 Log.e(TAG, "FFmpeg failed: " + errorMsg);
             }
             
@@ -318,121 +625,455 @@ public class FFmpegPlugin extends Plugin {
             return;
         }
         
+        Double duration = call.getDouble("duration");
+        
         Log.d(TAG, "Executing async FFmpeg command: " + command);
         
-        FFmpegKit.executeAsync(command, session -> {
+        FFmpegSession started = FFmpegKit.executeAsync(resolveCommandInputs(command), session -> {
+            progressAggregator.finish(session.getSessionId());
+            Metrics.get().recordSession(session, session.getDuration() * 1_000_000L);
             JSObject result = new JSObject();
+            result.put("sessionId", session.getSessionId());
             
+            LogCapture.Ring ring = logCapture.get(session.getSessionId());
             if (ReturnCode.isSuccess(session.getReturnCode())) {
                 result.put("success", true);
-                result.put("output", session.getOutput());
+                result.put("output", ring != null ? ring.tailAsString(DEFAULT_LOG_TAIL) : "");
             } else {
                 String error = session.getFailStackTrace();
+                if (error == null && ring != null) {
+                    error = ring.getLastError();
+                }
                 result.put("success", false);
                 result.put("error", error != null ? error : "Command failed");
             }
             
             notifyListeners("ffmpegComplete", result);
-        }, log -> {
-            // Log callback - optional
-            Log.d(TAG, log.getMessage());
-        }, statistics -> {
-            // Statistics callback for progress
-            JSObject progress = new JSObject();
-            progress.put("time", statistics.getTime());
-            progress.put("size", statistics.getSize());
-            progress.put("bitrate", statistics.getBitrate());
-            progress.put("speed", statistics.getSpeed());
-            
-            notifyListeners("ffmpegProgress", progress);
-        });
+        }, null, progressAggregator::onStatistics);
+        
+        if (duration != null && duration > 0) {
+            progressAggregator.setDuration(started.getSessionId(), duration);
+        }
         
         JSObject result = new JSObject();
         result.put("started", true);
+        result.put("sessionId", started.getSessionId());
         call.resolve(result);
     }
     
+    /**
+     * Cut several clips out of one input in a single FFmpeg session.
+     * Every range is its own input-side -ss/-t seek mapped to its own output,
+     * so the process, codec setup and muxers are shared while each clip keeps
+     * the single-clip semantics: video and audio both start at the keyframe
+     * before start. (An output-side -ss on a stream copy would drop that
+     * keyframe and start the video at the next one, with audio at start.)
+     * Ranges already rendered from the same input (OutputManifest) are returned
+     * with "reused": true and left out of the session; pass reuse:false to
+     * render everything.
+     */
     @PluginMethod
-    public void cancel(PluginCall call) {
-        FFmpegKit.cancel();
+    public void executeBatch(PluginCall call) {
+        String inputPath = call.getString("input");
+        JSArray ranges = call.getArray("ranges");
+        String outputDir = call.getString("outputDir");
+
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+
+        if (ranges == null || ranges.length() == 0) {
+            call.reject("At least one range is required");
+            return;
+        }
+
+        File outDir = (outputDir != null && !outputDir.isEmpty()) ? new File(outputDir) : getContext().getCacheDir();
+        if (!outDir.exists()) {
+            outDir.mkdirs();
+        }
+
+        File pinned = InputCache.pin(inputPath);
+        try {
+            int count = ranges.length();
+            double[] starts = new double[count];
+            double[] ends = new double[count];
+            File[] outputs = new File[count];
+            String[] keys = new String[count];
+
+            // Parts rendered before from the same input and range are reused as-is
+            OutputManifest manifest = OutputManifest.get(getContext());
+            String fingerprint = null;
+            if (call.getBoolean("reuse", true)) {
+                try {
+                    fingerprint = InputFingerprint.of(getContext(), inputPath);
+                } catch (IOException e) {
+                    Log.w(TAG, "No fingerprint, rendering every part: " + e.getMessage());
+                }
+            }
+
+            for (int i = 0; i < count; i++) {
+                JSONObject range = ranges.getJSONObject(i);
+                starts[i] = range.getDouble("start");
+                ends[i] = range.getDouble("end");
+                if (ends[i] <= starts[i]) {
+                    call.reject("Range " + (i + 1) + " has end before start");
+                    return;
+                }
+                String outputName = range.optString("outputName", "clip_" + (i + 1) + "_" + System.currentTimeMillis() + ".mp4");
+                outputs[i] = new File(outDir, outputName);
+
+                if (fingerprint != null) {
+                    keys[i] = OutputManifest.batchKey(fingerprint, starts[i], ends[i]);
+                }
+            }
+
+            OutputManifest.Entry[] reused = manifest.lookupAll(keys);
+            int toRender = 0;
+            for (OutputManifest.Entry entry : reused) {
+                if (entry == null) {
+                    toRender++;
+                }
+            }
+
+            boolean sessionOk = true;
+            FFmpegSession session = null;
+            if (toRender > 0) {
+                List<String> args = new ArrayList<>();
+                args.add("-y");
+                for (int i = 0; i < count; i++) {
+                    if (reused[i] != null) {
+                        continue;
+                    }
+                    // SAF parameters are single-use, so each input resolves its own
+                    args.add("-ss");
+                    args.add(CommandPlanner.formatSeconds(starts[i]));
+                    args.add("-t");
+                    args.add(CommandPlanner.formatSeconds(ends[i] - starts[i]));
+                    args.add("-i");
+                    args.add(resolveInput(inputPath));
+                }
+
+                int input = 0;
+                for (int i = 0; i < count; i++) {
+                    if (reused[i] != null) {
+                        continue;
+                    }
+                    // A stale file of the same name must not pass for this clip if the session fails early
+                    outputs[i].delete();
+                    // Only what mp4 can hold: data streams (timecode, GPS) would fail the whole session
+                    args.add("-map");
+                    args.add(input + ":v:0");
+                    args.add("-map");
+                    args.add(input + ":a?");
+                    input++;
+                    args.add("-c");
+                    args.add("copy");
+                    args.add("-avoid_negative_ts");
+                    args.add("make_zero");
+                    args.add(outputs[i].getAbsolutePath());
+                }
+
+                Log.d(TAG, "Executing batch of " + toRender + "/" + count + " clips from: " + inputPath);
+
+                session = FFmpegKit.executeWithArguments(args.toArray(new String[0]));
+                sessionOk = ReturnCode.isSuccess(session.getReturnCode());
+            } else {
+                Log.d(TAG, "All " + count + " clips reused, nothing to render");
+            }
+
+            JSArray clips = new JSArray();
+            int succeeded = 0;
+            for (int i = 0; i < count; i++) {
+                JSObject clip = new JSObject();
+                clip.put("index", i);
+
+                if (reused[i] != null) {
+                    File existing = new File(reused[i].path);
+                    clip.put("path", existing.getAbsolutePath());
+                    clip.put("outputName", existing.getName());
+                    clip.put("success", true);
+                    clip.put("size", existing.length());
+                    clip.put("reused", true);
+                    succeeded++;
+                    clips.put(clip);
+                    continue;
+                }
+
+                clip.put("path", outputs[i].getAbsolutePath());
+                clip.put("outputName", outputs[i].getName());
+
+                // A failed or cancelled session can leave every output partly written
+                boolean ok = sessionOk && outputs[i].exists() && outputs[i].length() > 0;
+                clip.put("success", ok);
+                clip.put("size", ok ? outputs[i].length() : 0);
+                clip.put("reused", false);
+                if (ok) {
+                    succeeded++;
+                    if (keys[i] != null) {
+                        manifest.put(keys[i], outputs[i]);
+                    }
+                } else {
+                    outputs[i].delete();
+                    clip.put("error", sessionOk ? "Output is empty" : "Session failed before clip was finished");
+                }
+                clips.put(clip);
+            }
+
+            JSObject result = new JSObject();
+            result.put("success", sessionOk && succeeded == count);
+            result.put("returnCode", session != null ? session.getReturnCode().getValue() : 0);
+            result.put("duration", session != null ? session.getDuration() : 0);
+            result.put("succeeded", succeeded);
+            result.put("reused", count - toRender);
+            result.put("clips", clips);
+
+            if (session != null && ReturnCode.isCancel(session.getReturnCode())) {
+                result.put("error", "Command cancelled");
+            } else if (!sessionOk) {
+                String output = session.getOutput();
+                String errorMsg = "FFmpeg failed with return code " + session.getReturnCode().getValue();
+                if (output != null && !output.isEmpty()) {
+                    int start = Math.max(0, output.length() - 500);
+                    errorMsg += ". Output: " + output.substring(start);
+                }
+                result.put("error", errorMsg);
+                Log.e(TAG, "Batch failed: " + errorMsg);
+            }
+
+            Log.d(TAG, "Batch finished: " + succeeded + "/" + count + " clips");
+            call.resolve(result);
+
+        } catch (Exception e) {
+            Log.e(TAG, "Batch exception: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", "Exception: " + e.getMessage());
+            call.resolve(result);
+        } finally {
+            InputCache.unpin(pinned);
+        }
+    }
+
+    /**
+     * Keyframe times for an input, from the on-disk index when this video has
+     * been seen before. Optional "snap" times are returned with the keyframes
+     * just before and after them, so the UI can snap cut points without a probe.
+     */
+    @PluginMethod
+    public void getKeyframes(PluginCall call) {
+        String inputPath = call.getString("input");
+        JSArray snap = call.getArray("snap");
         
-        JSObject result = new JSObject();
-        result.put("cancelled", true);
-        call.resolve(result);
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+        
+        try {
+            long startTime = System.nanoTime();
+            String fingerprint = InputFingerprint.of(getContext(), inputPath);
+            boolean cached = keyframeIndexes.containsKey(fingerprint)
+                || KeyframeIndex.cacheFile(getContext().getCacheDir(), fingerprint).exists();
+            KeyframeIndex index = getKeyframeIndex(inputPath, fingerprint);
+            
+            JSArray keyframes = new JSArray();
+            for (double time : index.times) {
+                keyframes.put(time);
+            }
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("fingerprint", index.fingerprint);
+            result.put("count", index.size());
+            result.put("cached", cached);
+            result.put("elapsedMs", (System.nanoTime() - startTime) / 1_000_000);
+            result.put("keyframes", keyframes);
+            
+            if (snap != null) {
+                JSArray snapped = new JSArray();
+                for (int i = 0; i < snap.length(); i++) {
+                    double time = snap.getDouble(i);
+                    JSObject entry = new JSObject();
+                    entry.put("time", time);
+                    entry.put("before", index.floor(time));
+                    entry.put("after", index.ceil(time));
+                    snapped.put(entry);
+                }
+                result.put("snapped", snapped);
+            }
+            
+            call.resolve(result);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Keyframe index failed: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
     }
     
+    /**
+     * Copy, encode and publish a whole job as overlapping stages (ClipPipeline):
+     * { input, parts: [{ start, end, outputName }], destFolder, duration,
+     *   crop, watermark, videoCodec, audioCodec, preset, crf, threads }.
+     * preset "auto" picks one from the calibrated profile (targetSpeed or
+     * targetSeconds; see calibrateEncoder).
+     * Resolves once every part is published; "pipelineProgress" fires per part.
+     */
     @PluginMethod
-    public void moveToPublic(PluginCall call) {
-        String sourcePath = call.getString("source");
-        String filename = call.getString("filename");
-        String destFolder = call.getString("destFolder");
+    public void runPipeline(PluginCall call) {
+        String inputPath = call.getString("input");
+        JSArray partsArray = call.getArray("parts");
         
-        if (sourcePath == null || sourcePath.isEmpty()) {
-            call.reject("Source path is required");
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
             return;
         }
         
-        if (filename == null || filename.isEmpty()) {
-            filename = new File(sourcePath).getName();
+        if (partsArray == null || partsArray.length() == 0) {
+            call.reject("At least one part is required");
+            return;
         }
         
-        Log.d(TAG, "Moving to public: " + sourcePath + " -> " + filename);
+        if (activePipeline != null) {
+            call.reject("A pipeline is already running");
+            return;
+        }
         
         try {
-            File sourceFile = new File(sourcePath);
-            if (!sourceFile.exists()) {
-                JSObject result = new JSObject();
-                result.put("success", false);
-                result.put("error", "Source file not found");
-                call.resolve(result);
-                return;
+            List<ClipPipeline.Part> parts = new ArrayList<>();
+            long stamp = System.currentTimeMillis();
+            for (int i = 0; i < partsArray.length(); i++) {
+                JSONObject part = partsArray.getJSONObject(i);
+                parts.add(new ClipPipeline.Part(i, part.getDouble("start"), part.getDouble("end"),
+                    part.optString("outputName", "clip_" + (i + 1) + "_" + stamp + ".mp4")));
             }
             
-            // Create output directory (use custom folder or default to Movies/Klipper)
-            File outputDir;
-            if (destFolder != null && !destFolder.isEmpty()) {
-                outputDir = new File(destFolder);
-            } else {
-                outputDir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES), "Klipper");
-            }
+            CommandPlanner.Job template = new CommandPlanner.Job();
+            template.crop = call.getBoolean("crop", false);
+            template.videoCodec = call.getString("videoCodec", "auto");
+            template.audioCodec = call.getString("audioCodec", "auto");
+            template.preset = call.getString("preset", "fast");
+            template.crf = call.getInt("crf", 23);
+            template.threads = call.getInt("threads", 0);
+            template.watermark = parseWatermark(call.getObject("watermark"));
             
-            if (!outputDir.exists()) {
-                outputDir.mkdirs();
+            EncoderCalibration.Choice encoderChoice = null;
+            if ("auto".equals(template.preset)) {
+                double mediaSeconds = 0;
+                for (ClipPipeline.Part part : parts) {
+                    mediaSeconds += part.end - part.start;
+                }
+                encoderChoice = autoEncoderSettings(call, inputPath, template.crop, template.videoCodec, mediaSeconds);
+                template.preset = encoderChoice.preset;
+                template.threads = encoderChoice.threads;
             }
+            final EncoderCalibration.Choice pipelineChoice = encoderChoice;
             
-            File destFile = new File(outputDir, filename);
-            
-            // Copy file
-            InputStream input = new FileInputStream(sourceFile);
-            OutputStream output = new FileOutputStream(destFile);
-            
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = input.read(buffer)) != -1) {
-                output.write(buffer, 0, bytesRead);
+            // Only non-seekable content needs the copy stage; everything else is read in place
+            File copyFile = null;
+            long sourceSize = -1;
+            if (inputPath.startsWith("content://")) {
+                Uri uri = Uri.parse(inputPath);
+                ContentResolver resolver = getContext().getContentResolver();
+                if (!isSeekable(resolver, uri)) {
+                    // A .part name: it's never looked up again and trim() sweeps it if we die
+                    copyFile = getInputCache().tempFile("stream_" + stamp);
+                    Cursor cursor = resolver.query(uri, null, null, null, null);
+                    if (cursor != null) {
+                        int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                        if (cursor.moveToFirst() && sizeIndex >= 0 && !cursor.isNull(sizeIndex)) {
+                            sourceSize = cursor.getLong(sizeIndex);
+                        }
+                        cursor.close();
+                    }
+                }
             }
             
-            output.close();
-            input.close();
-            
-            // Delete source file
-            sourceFile.delete();
-            
-            // Scan file so it appears in gallery
-            MediaScannerConnection.scanFile(getContext(), 
-                new String[]{destFile.getAbsolutePath()}, 
-                new String[]{"video/mp4"}, 
-                null);
+            File destDir = resolveOutputDir(call.getString("destFolder"));
+            if (!destDir.exists()) {
+                destDir.mkdirs();
+            }
+            // Encode straight into the destination when possible; publishing is then just a scan
+            File workDir = destDir.canWrite() ? destDir : getContext().getCacheDir();
             
-            Log.d(TAG, "Moved to: " + destFile.getAbsolutePath());
+            ClipPipeline pipeline = new ClipPipeline(getContext(), inputPath, copyFile, sourceSize,
+                call.getDouble("duration", 0.0), template, workDir, destDir, part -> {
+                    JSObject event = new JSObject();
+                    event.put("index", part.index);
+                    event.put("success", part.success);
+                    event.put("path", part.publishedPath);
+                    event.put("strategy", part.strategy);
+                    event.put("startedEarly", part.startedEarly);
+                    event.put("error", part.error);
+                    notifyListeners("pipelineProgress", event);
+                });
+            activePipeline = pipeline;
             
-            JSObject result = new JSObject();
-            result.put("success", true);
-            result.put("path", destFile.getAbsolutePath());
-            call.resolve(result);
+            final File copied = copyFile;
+            final File pinned = InputCache.pin(inputPath);
+            if (copied != null) {
+                InputCache.pin(copied);
+            }
+            new Thread(() -> {
+                long startTime = System.nanoTime();
+                try {
+                    pipeline.run(parts);
+                    
+                    JSArray results = new JSArray();
+                    int succeeded = 0;
+                    for (ClipPipeline.Part part : parts) {
+                        JSObject item = new JSObject();
+                        item.put("index", part.index);
+                        item.put("success", part.success);
+                        item.put("path", part.publishedPath);
+                        item.put("startedEarly", part.startedEarly);
+                        item.put("error", part.error);
+                        results.put(item);
+                        if (part.success) {
+                            succeeded++;
+                        }
+                    }
+                    
+                    JSObject stages = new JSObject();
+                    for (ClipPipeline.StageStats stage : pipeline.stats()) {
+                        JSObject stats = new JSObject();
+                        stats.put("busyMs", stage.busyNanos / 1_000_000);
+                        stats.put("idleMs", stage.idleNanos / 1_000_000);
+                        stats.put("items", stage.items);
+                        stages.put(stage.name, stats);
+                    }
+                    
+                    JSObject result = new JSObject();
+                    result.put("success", succeeded == parts.size());
+                    result.put("succeeded", succeeded);
+                    result.put("parts", results);
+                    result.put("stages", stages);
+                    if (pipelineChoice != null) {
+                        result.put("encoderSettings", choiceToJSObject(pipelineChoice));
+                    }
+                    result.put("wallMs", (System.nanoTime() - startTime) / 1_000_000);
+                    call.resolve(result);
+                } catch (Exception e) {
+                    Log.e(TAG, "Pipeline failed: " + e.getMessage());
+                    JSObject result = new JSObject();
+                    result.put("success", false);
+                    result.put("error", e.getMessage());
+                    call.resolve(result);
+                } finally {
+                    if (copied != null) {
+                        copied.delete();
+                        InputCache.unpin(copied);
+                    }
+                    InputCache.unpin(pinned);
+                    activePipeline = null;
+                }
+            }, "klipper-pipeline").start();
             
         } catch (Exception e) {
-            Log.e(TAG, "Move failed: " + e.getMessage());
+            Log.e(TAG, "Pipeline setup failed: " + e.getMessage());
             JSObject result = new JSObject();
             result.put("success", false);
             result.put("error", e.getMessage());
@@ -441,33 +1082,1752 @@ public class FFmpegPlugin extends Plugin {
     }
     
     @PluginMethod
-    public void checkStoragePermission(PluginCall call) {
-        boolean hasPermission = false;
-        
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            // Android 11+ - use MANAGE_EXTERNAL_STORAGE or scoped storage
-            hasPermission = Environment.isExternalStorageManager() || 
-                            ContextCompat.checkSelfPermission(getContext(), Manifest.permission.READ_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED;
-        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            // Android 6-10
-            hasPermission = ContextCompat.checkSelfPermission(getContext(), Manifest.permission.WRITE_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED;
-        } else {
-            // Below Android 6 - permission granted at install
-            hasPermission = true;
+    public void cancelPipeline(PluginCall call) {
+        ClipPipeline pipeline = activePipeline;
+        if (pipeline != null) {
+            pipeline.cancel();
         }
         
         JSObject result = new JSObject();
-        result.put("granted", hasPermission);
-        result.put("androidVersion", Build.VERSION.SDK_INT);
+        result.put("cancelled", pipeline != null);
         call.resolve(result);
     }
     
+    /**
+     * Hand a whole batch to ProcessingService, which keeps running it in the
+     * background and resumes it after a restart:
+     * { input, parts: [{ start, end, outputName }], destFolder,
+     *   crop, watermark, videoCodec, audioCodec, preset, crf, threads }.
+     * preset "auto" is resolved here, so a resumed batch keeps the same settings.
+     * Resolves with the batchId right away; "batchPart" fires per finished part
+     * and "batchComplete" at the end.
+     */
     @PluginMethod
-    public void requestStoragePermission(PluginCall call) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            // Android 11+ - Open app settings for "All Files Access" permission
-            try {
-                Intent intent = new Intent(Settings.ACTION_MANAGE_APP_ALL_FILES_ACCESS_PERMISSION);
+    public void submitBatch(PluginCall call) {
+        String inputPath = call.getString("input");
+        JSArray partsArray = call.getArray("parts");
+        
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+        
+        if (partsArray == null || partsArray.length() == 0) {
+            call.reject("At least one part is required");
+            return;
+        }
+        
+        try {
+            long stamp = System.currentTimeMillis();
+            JSONArray parts = new JSONArray();
+            double mediaSeconds = 0;
+            for (int i = 0; i < partsArray.length(); i++) {
+                JSONObject part = partsArray.getJSONObject(i);
+                JSONObject spec = new JSONObject();
+                spec.put("start", part.getDouble("start"));
+                spec.put("end", part.getDouble("end"));
+                spec.put("outputName", part.optString("outputName", "clip_" + (i + 1) + "_" + stamp + ".mp4"));
+                parts.put(spec);
+                mediaSeconds += part.getDouble("end") - part.getDouble("start");
+            }
+            
+            String preset = call.getString("preset", "fast");
+            int threads = call.getInt("threads", 0);
+            EncoderCalibration.Choice encoderChoice = null;
+            if ("auto".equals(preset)) {
+                encoderChoice = autoEncoderSettings(call, inputPath, call.getBoolean("crop", false),
+                    call.getString("videoCodec", "auto"), mediaSeconds);
+                preset = encoderChoice.preset;
+                threads = encoderChoice.threads;
+            }
+            
+            JSONObject spec = new JSONObject();
+            spec.put("input", inputPath);
+            spec.put("destFolder", call.getString("destFolder"));
+            spec.put("crop", call.getBoolean("crop", false));
+            spec.put("videoCodec", call.getString("videoCodec", "auto"));
+            spec.put("audioCodec", call.getString("audioCodec", "auto"));
+            spec.put("preset", preset);
+            spec.put("crf", call.getInt("crf", 23));
+            spec.put("threads", threads);
+            CommandPlanner.Watermark watermark = parseWatermark(call.getObject("watermark"));
+            if (watermark != null) {
+                spec.put("watermark", ProcessingService.watermarkToJson(watermark));
+            }
+            spec.put("parts", parts);
+            
+            // Keep read access to the picked video across a process restart
+            // (only possible for documents picked through the SAF picker)
+            if (inputPath.startsWith("content://")) {
+                try {
+                    getContext().getContentResolver().takePersistableUriPermission(
+                        Uri.parse(inputPath), Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                } catch (SecurityException e) {
+                    Log.d(TAG, "No persistable permission for " + inputPath);
+                }
+            }
+            
+            JobJournal.Batch batch = ProcessingService.getJournal(getContext()).add(spec);
+            ProcessingService.start(getContext());
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("batchId", batch.id);
+            if (encoderChoice != null) {
+                result.put("encoderSettings", choiceToJSObject(encoderChoice));
+            }
+            call.resolve(result);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Submit batch failed: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
+    }
+    
+    @PluginMethod
+    public void getBatches(PluginCall call) {
+        JSArray batches = new JSArray();
+        for (JobJournal.Batch batch : ProcessingService.getJournal(getContext()).list()) {
+            batches.put(batchToJSObject(batch));
+        }
+        
+        JSObject result = new JSObject();
+        result.put("batches", batches);
+        call.resolve(result);
+    }
+    
+    @PluginMethod
+    public void cancelBatch(PluginCall call) {
+        String batchId = call.getString("batchId");
+        
+        if (batchId == null) {
+            call.reject("Batch ID is required");
+            return;
+        }
+        
+        JobJournal.Batch batch = ProcessingService.getJournal(getContext()).get(batchId);
+        boolean cancellable = batch != null && !batch.isFinished();
+        if (cancellable) {
+            ProcessingService.cancel(getContext(), batchId);
+        }
+        
+        JSObject result = new JSObject();
+        result.put("batchId", batchId);
+        result.put("cancelled", cancellable);
+        call.resolve(result);
+    }
+    
+    private final ProcessingService.Listener batchListener = new ProcessingService.Listener() {
+        @Override
+        public void onPartDone(JobJournal.Batch batch, int index) {
+            JSObject event = new JSObject();
+            event.put("batchId", batch.id);
+            event.put("index", index);
+            event.put("state", batch.parts[index].name());
+            event.put("detail", batch.details[index]);
+            event.put("total", batch.parts.length);
+            notifyListeners("batchPart", event);
+        }
+        
+        @Override
+        public void onBatchDone(JobJournal.Batch batch) {
+            notifyListeners("batchComplete", batchToJSObject(batch));
+        }
+    };
+    
+    private static JSObject batchToJSObject(JobJournal.Batch batch) {
+        JSObject result = new JSObject();
+        result.put("batchId", batch.id);
+        result.put("state", batch.state);
+        result.put("nextPart", batch.nextPart());
+        
+        JSArray parts = new JSArray();
+        for (int i = 0; i < batch.parts.length; i++) {
+            JSObject part = new JSObject();
+            part.put("state", batch.parts[i].name());
+            if (batch.parts[i] == JobJournal.PartState.DONE) {
+                part.put("path", batch.details[i]);
+            } else if (batch.parts[i] == JobJournal.PartState.FAILED) {
+                part.put("error", batch.details[i]);
+            }
+            parts.put(part);
+        }
+        result.put("parts", parts);
+        return result;
+    }
+    
+    /**
+     * Plan and run one clip from a structured job instead of a command string:
+     * { input, output, start, end, crop,
+     *   watermark: { text, position, fontSize, renderMode, width, height },
+     *   videoCodec, audioCodec, preset, crf, threads, dryRun }.
+     * See CommandPlanner for how seeking and per-stream copy are chosen, and
+     * calibrateEncoder for preset "auto". Runs off the plugin thread.
+     */
+    @PluginMethod
+    public void planAndExecute(PluginCall call) {
+        String inputPath = call.getString("input");
+        String outputPath = call.getString("output");
+        
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+        
+        if (outputPath == null || outputPath.isEmpty()) {
+            outputPath = new File(getContext().getCacheDir(), "clip_" + System.currentTimeMillis() + ".mp4").getAbsolutePath();
+        }
+        
+        final String clipPath = outputPath;
+        File pinned = InputCache.pin(inputPath);
+        new Thread(() -> {
+            try {
+                CommandPlanner.Job job = new CommandPlanner.Job();
+                job.input = inputPath;
+                job.output = clipPath;
+                job.start = call.getDouble("start", -1.0);
+                job.end = call.getDouble("end", -1.0);
+                job.crop = call.getBoolean("crop", false);
+                job.videoCodec = call.getString("videoCodec", "auto");
+                job.audioCodec = call.getString("audioCodec", "auto");
+                job.preset = call.getString("preset", "fast");
+                job.crf = call.getInt("crf", 23);
+                job.threads = call.getInt("threads", 0);
+                job.watermark = parseWatermark(call.getObject("watermark"));
+                
+                if (job.start > 0) {
+                    // An "auto" copy would start at the keyframe before start; re-encode unless it is one
+                    try {
+                        KeyframeIndex index = getKeyframeIndex(inputPath, InputFingerprint.of(getContext(), inputPath));
+                        job.startOnKeyframe = SmartCutter.startsOnKeyframe(index, job.start);
+                    } catch (IOException e) {
+                        Log.w(TAG, "No keyframe index, re-encoding planned job: " + e.getMessage());
+                        job.startOnKeyframe = false;
+                    }
+                }
+                
+                EncoderCalibration.Choice encoderChoice = null;
+                if ("auto".equals(job.preset)) {
+                    encoderChoice = autoEncoderSettings(call, inputPath, job.crop, job.videoCodec,
+                        job.end >= 0 ? job.end - Math.max(0, job.start) : 0);
+                    job.preset = encoderChoice.preset;
+                    job.threads = encoderChoice.threads;
+                }
+                
+                CommandPlanner.Plan plan = CommandPlanner.plan(job);
+                
+                JSArray planned = new JSArray();
+                for (String arg : plan.arguments) {
+                    planned.put(arg);
+                }
+                
+                JSObject result = new JSObject();
+                result.put("path", clipPath);
+                result.put("arguments", planned);
+                result.put("copyVideo", plan.copyVideo);
+                result.put("copyAudio", plan.copyAudio);
+                if (encoderChoice != null) {
+                    result.put("encoderSettings", choiceToJSObject(encoderChoice));
+                }
+                
+                if (call.getBoolean("dryRun", false)) {
+                    result.put("success", true);
+                    call.resolve(result);
+                    return;
+                }
+                
+                // The planned input stays a plain path/URI; only the executed copy gets a SAF parameter
+                List<String> args = new ArrayList<>(plan.arguments);
+                args.set(args.indexOf("-i") + 1, resolveInput(inputPath));
+                
+                Log.d(TAG, "Executing planned job: " + plan.arguments);
+                long startTime = System.nanoTime();
+                FFmpegSession session = runOrThrow(args);
+                
+                result.put("success", true);
+                result.put("returnCode", session.getReturnCode().getValue());
+                result.put("elapsedMs", (System.nanoTime() - startTime) / 1_000_000);
+                call.resolve(result);
+                
+            } catch (Exception e) {
+                Log.e(TAG, "Planned job failed: " + e.getMessage());
+                JSObject result = new JSObject();
+                result.put("success", false);
+                result.put("error", e.getMessage());
+                call.resolve(result);
+            } finally {
+                InputCache.unpin(pinned);
+            }
+        }, "klipper-plan").start();
+    }
+    
+    /**
+     * Several outputs of one range from a single decode:
+     * { input, start, end, dryRun,
+     *   outputs: [{ output, crop, height, watermark, videoCodec, audioCodec, preset, crf }] }.
+     * Frames are decoded once and split into every output that needs
+     * filtering or encoding (see CommandPlanner.planFanOut); e.g. a 9:16 crop,
+     * the full frame and a 360p preview cost one decode instead of three.
+     * Runs off the plugin thread.
+     */
+    @PluginMethod
+    public void executeFanOut(PluginCall call) {
+        String inputPath = call.getString("input");
+        JSArray outputs = call.getArray("outputs");
+        
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+        
+        if (outputs == null || outputs.length() == 0) {
+            call.reject("At least one output is required");
+            return;
+        }
+        
+        File pinned = InputCache.pin(inputPath);
+        new Thread(() -> {
+            try {
+                CommandPlanner.FanOutJob job = new CommandPlanner.FanOutJob();
+                job.input = inputPath;
+                job.start = call.getDouble("start", -1.0);
+                job.end = call.getDouble("end", -1.0);
+                
+                long stamp = System.currentTimeMillis();
+                for (int i = 0; i < outputs.length(); i++) {
+                    JSObject options = JSObject.fromJSONObject(outputs.getJSONObject(i));
+                    CommandPlanner.Variant variant = new CommandPlanner.Variant();
+                    variant.output = options.getString("output");
+                    if (variant.output == null || variant.output.isEmpty()) {
+                        variant.output = new File(getContext().getCacheDir(), "clip_" + stamp + "_" + i + ".mp4").getAbsolutePath();
+                    }
+                    variant.crop = options.getBoolean("crop", false);
+                    variant.height = options.getInteger("height", 0);
+                    variant.videoCodec = options.getString("videoCodec", "auto");
+                    variant.audioCodec = options.getString("audioCodec", "auto");
+                    variant.preset = options.getString("preset", "fast");
+                    variant.crf = options.getInteger("crf", 23);
+                    variant.watermark = parseWatermark(options.getJSObject("watermark"));
+                    job.variants.add(variant);
+                }
+                
+                if (job.start > 0) {
+                    // Copied variants would start at the keyframe before start; re-encode them unless it is one
+                    try {
+                        KeyframeIndex index = getKeyframeIndex(inputPath, InputFingerprint.of(getContext(), inputPath));
+                        job.startOnKeyframe = SmartCutter.startsOnKeyframe(index, job.start);
+                    } catch (IOException e) {
+                        Log.w(TAG, "No keyframe index, re-encoding fan-out outputs: " + e.getMessage());
+                        job.startOnKeyframe = false;
+                    }
+                }
+                
+                CommandPlanner.FanOutPlan plan = CommandPlanner.planFanOut(job);
+                
+                JSArray planned = new JSArray();
+                for (String arg : plan.arguments) {
+                    planned.put(arg);
+                }
+                JSArray paths = new JSArray();
+                for (int i = 0; i < job.variants.size(); i++) {
+                    JSObject item = new JSObject();
+                    item.put("path", job.variants.get(i).output);
+                    item.put("copyVideo", plan.copyVideo[i]);
+                    paths.put(item);
+                }
+                
+                JSObject result = new JSObject();
+                result.put("outputs", paths);
+                result.put("arguments", planned);
+                result.put("decodedOutputs", plan.decodedVariants);
+                
+                if (call.getBoolean("dryRun", false)) {
+                    result.put("success", true);
+                    call.resolve(result);
+                    return;
+                }
+                
+                // Only the executed copy gets a SAF parameter; the first -i is always the input
+                List<String> args = new ArrayList<>(plan.arguments);
+                args.set(args.indexOf("-i") + 1, resolveInput(inputPath));
+                
+                Log.d(TAG, "Executing fan-out job: " + plan.arguments);
+                long startTime = System.nanoTime();
+                FFmpegSession session = runOrThrow(args);
+                
+                result.put("success", true);
+                result.put("returnCode", session.getReturnCode().getValue());
+                result.put("elapsedMs", (System.nanoTime() - startTime) / 1_000_000);
+                call.resolve(result);
+                
+            } catch (Exception e) {
+                Log.e(TAG, "Fan-out job failed: " + e.getMessage());
+                JSObject result = new JSObject();
+                result.put("success", false);
+                result.put("error", e.getMessage());
+                call.resolve(result);
+            } finally {
+                InputCache.unpin(pinned);
+            }
+        }, "klipper-fanout").start();
+    }
+    
+    /**
+     * Render the watermark text and box into a transparent PNG (cached by text,
+     * font size, position and output resolution) for use with the overlay filter.
+     */
+    @PluginMethod
+    public void renderWatermark(PluginCall call) {
+        String text = call.getString("text");
+        
+        if (text == null || text.isEmpty()) {
+            call.reject("Text is required");
+            return;
+        }
+        
+        try {
+            String position = call.getString("position", "center");
+            WatermarkRenderer.Rendered rendered = WatermarkRenderer.render(
+                getContext().getCacheDir(), ensureFontFile(), text,
+                call.getInt("fontSize", 24), position,
+                call.getInt("width", 0), call.getInt("height", 0));
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("path", rendered.file.getAbsolutePath());
+            result.put("width", rendered.width);
+            result.put("height", rendered.height);
+            result.put("cached", rendered.cached);
+            result.put("overlay", "overlay=" + CommandPlanner.overlayPosition(position));
+            call.resolve(result);
+        } catch (Exception e) {
+            Log.e(TAG, "Error rendering watermark", e);
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
+    }
+    
+    private CommandPlanner.Watermark parseWatermark(JSObject options) throws IOException {
+        if (options == null) {
+            return null;
+        }
+        String text = options.getString("text");
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        
+        CommandPlanner.Watermark watermark = new CommandPlanner.Watermark();
+        watermark.position = options.getString("position", "center");
+        watermark.fontSize = options.getInteger("fontSize", 24);
+        watermark.fontFile = ensureFontFile().getAbsolutePath();
+        
+        // Default: overlay a PNG rendered once, instead of drawtext on every frame
+        if (!"drawtext".equals(options.getString("renderMode", "overlay"))) {
+            WatermarkRenderer.Rendered rendered = WatermarkRenderer.render(
+                getContext().getCacheDir(), ensureFontFile(), text, watermark.fontSize, watermark.position,
+                options.getInteger("width", 0), options.getInteger("height", 0));
+            watermark.image = rendered.file.getAbsolutePath();
+            return watermark;
+        }
+        
+        // drawtext reads the text from a file, so no filtergraph escaping is needed
+        File textFile = new File(getContext().getCacheDir(), "watermark_" + Integer.toHexString(text.hashCode()) + ".txt");
+        try (OutputStream os = new FileOutputStream(textFile)) {
+            os.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        watermark.textFile = textFile.getAbsolutePath();
+        return watermark;
+    }
+    
+    /**
+     * Frame-accurate clip at roughly stream-copy cost: only the frames between
+     * start and the next keyframe are re-encoded (see SmartCutter). Runs off
+     * the plugin thread: a cut is several FFmpeg sessions in a row.
+     */
+    @PluginMethod
+    public void smartCut(PluginCall call) {
+        String inputPath = call.getString("input");
+        Double start = call.getDouble("start");
+        Double end = call.getDouble("end");
+        String outputPath = call.getString("output");
+        
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+        
+        if (start == null || end == null || end <= start) {
+            call.reject("A valid start and end are required");
+            return;
+        }
+        
+        if (outputPath == null || outputPath.isEmpty()) {
+            outputPath = new File(getContext().getCacheDir(), "clip_" + System.currentTimeMillis() + ".mp4").getAbsolutePath();
+        }
+        
+        final String clipPath = outputPath;
+        File pinned = InputCache.pin(inputPath);
+        new Thread(() -> {
+            try {
+                long startTime = System.nanoTime();
+                String fingerprint = InputFingerprint.of(getContext(), inputPath);
+                MediaProbe probe = getMediaProbe(inputPath, fingerprint);
+                KeyframeIndex index = getKeyframeIndex(inputPath, fingerprint);
+                SmartCutter.Result cut = new SmartCutter(getContext(), getContext().getCacheDir())
+                    .cut(inputPath, index, probe, start, end, new File(clipPath));
+                
+                JSObject result = new JSObject();
+                result.put("success", true);
+                result.put("path", clipPath);
+                result.put("mode", cut.mode);
+                result.put("keyframe", cut.keyframe);
+                result.put("reencodedSeconds", cut.reencodedSeconds);
+                result.put("copiedSeconds", cut.copiedSeconds);
+                result.put("elapsedMs", (System.nanoTime() - startTime) / 1_000_000);
+                call.resolve(result);
+                
+            } catch (Exception e) {
+                Log.e(TAG, "Smart cut failed: " + e.getMessage());
+                JSObject result = new JSObject();
+                result.put("success", false);
+                result.put("error", e.getMessage());
+                call.resolve(result);
+            } finally {
+                InputCache.unpin(pinned);
+            }
+        }, "klipper-smartcut").start();
+    }
+    
+    /**
+     * Join ranges into one output: {segments: [{input?, start, end}], input?, output?}.
+     * A segment without its own input uses the top-level one. Ranges are
+     * stream-copied and only boundary GOPs (or segments whose parameters
+     * differ from the first) are re-encoded; see ReelBuilder. Runs off the
+     * plugin thread and emits "concatProgress" after each segment.
+     */
+    @PluginMethod
+    public void concat(PluginCall call) {
+        String defaultInput = call.getString("input");
+        JSArray segmentsArray = call.getArray("segments");
+        String outputPath = call.getString("output");
+        
+        if (segmentsArray == null || segmentsArray.length() == 0) {
+            call.reject("At least one segment is required");
+            return;
+        }
+        
+        if (outputPath == null || outputPath.isEmpty()) {
+            outputPath = new File(getContext().getCacheDir(), "reel_" + System.currentTimeMillis() + ".mp4").getAbsolutePath();
+        }
+        
+        List<ReelBuilder.Segment> segments = new ArrayList<>();
+        for (int i = 0; i < segmentsArray.length(); i++) {
+            JSONObject item = segmentsArray.optJSONObject(i);
+            if (item == null) {
+                call.reject("Segment " + i + " is not an object");
+                return;
+            }
+            ReelBuilder.Segment segment = new ReelBuilder.Segment();
+            segment.input = item.optString("input", defaultInput);
+            segment.start = item.optDouble("start", -1);
+            segment.end = item.optDouble("end", -1);
+            if (segment.input == null || segment.input.isEmpty()) {
+                call.reject("Segment " + i + " has no input");
+                return;
+            }
+            if (segment.start < 0 || segment.end <= segment.start) {
+                call.reject("Segment " + i + " needs a valid start and end");
+                return;
+            }
+            segments.add(segment);
+        }
+        
+        final File output = new File(outputPath);
+        final List<File> pinned = new ArrayList<>();
+        for (ReelBuilder.Segment segment : segments) {
+            pinned.add(InputCache.pin(segment.input));
+        }
+        new Thread(() -> {
+            long startTime = System.nanoTime();
+            try {
+                for (ReelBuilder.Segment segment : segments) {
+                    String fingerprint = InputFingerprint.of(getContext(), segment.input);
+                    segment.probe = getMediaProbe(segment.input, fingerprint);
+                    segment.index = getKeyframeIndex(segment.input, fingerprint);
+                }
+                
+                new ReelBuilder(getContext(), getContext().getCacheDir()).build(segments, output, (index, segment) -> {
+                    JSObject event = new JSObject();
+                    event.put("index", index);
+                    event.put("total", segments.size());
+                    event.put("mode", segment.mode);
+                    notifyListeners("concatProgress", event);
+                });
+                
+                JSArray results = new JSArray();
+                double reencoded = 0;
+                double copied = 0;
+                for (ReelBuilder.Segment segment : segments) {
+                    JSObject item = new JSObject();
+                    item.put("mode", segment.mode);
+                    item.put("reencodedSeconds", segment.reencodedSeconds);
+                    item.put("copiedSeconds", segment.copiedSeconds);
+                    results.put(item);
+                    reencoded += segment.reencodedSeconds;
+                    copied += segment.copiedSeconds;
+                }
+                
+                JSObject result = new JSObject();
+                result.put("success", true);
+                result.put("path", output.getAbsolutePath());
+                result.put("segments", results);
+                result.put("reencodedSeconds", reencoded);
+                result.put("copiedSeconds", copied);
+                result.put("elapsedMs", (System.nanoTime() - startTime) / 1_000_000);
+                call.resolve(result);
+            } catch (Exception e) {
+                Log.e(TAG, "Concat failed: " + e.getMessage());
+                output.delete();
+                JSObject result = new JSObject();
+                result.put("success", false);
+                result.put("error", e.getMessage());
+                call.resolve(result);
+            } finally {
+                for (File file : pinned) {
+                    InputCache.unpin(file);
+                }
+            }
+        }, "klipper-concat").start();
+    }
+    
+    /**
+     * Duration, streams, codecs, resolution, rotation, frame rate and bitrate of
+     * an input in one call. Cached in memory and on disk by fingerprint, so
+     * asking again for the same video costs a fingerprint read only.
+     */
+    @PluginMethod
+    public void probe(PluginCall call) {
+        String inputPath = call.getString("input");
+        
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+        
+        try {
+            long startTime = System.nanoTime();
+            String fingerprint = InputFingerprint.of(getContext(), inputPath);
+            boolean cached = probes.containsKey(fingerprint)
+                || MediaProbe.cacheFile(getContext().getCacheDir(), fingerprint).exists();
+            MediaProbe probe = getMediaProbe(inputPath, fingerprint);
+            
+            JSObject result = JSObject.fromJSONObject(probe.toJson());
+            result.put("success", true);
+            result.put("cached", cached);
+            result.put("elapsedMs", (System.nanoTime() - startTime) / 1_000_000);
+            call.resolve(result);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Probe failed: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
+    }
+    
+    /**
+     * Time a short encode of the input with each preset and store the result
+     * for the input's class: { input, crop, encoder, crf, sampleSeconds, force }.
+     * An existing, current profile is returned as-is unless force is set.
+     * Runs off the plugin thread and emits "calibrationProgress" per preset.
+     */
+    @PluginMethod
+    public void calibrateEncoder(PluginCall call) {
+        String inputPath = call.getString("input");
+        boolean crop = call.getBoolean("crop", false);
+        String encoder = call.getString("encoder", "libx264");
+        int crf = call.getInt("crf", 23);
+        double sampleSeconds = call.getDouble("sampleSeconds", EncoderCalibration.DEFAULT_SAMPLE_SECONDS);
+        boolean force = call.getBoolean("force", false);
+        
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+        
+        if (!EncoderCalibration.supports(encoder)) {
+            call.reject("Encoder " + encoder + " cannot be calibrated");
+            return;
+        }
+        
+        new Thread(() -> {
+            long startTime = System.nanoTime();
+            try {
+                String fingerprint = InputFingerprint.of(getContext(), inputPath);
+                MediaProbe probe = getMediaProbe(inputPath, fingerprint);
+                String inputClass = EncoderCalibration.inputClass(probe, crop);
+                if (inputClass == null) {
+                    throw new IOException("Input has no video stream");
+                }
+                
+                EncoderCalibration.Profile profile = force ? null : loadEncoderProfile(inputClass, encoder, crf);
+                boolean cached = profile != null;
+                if (profile == null) {
+                    profile = EncoderCalibration.calibrate(getContext(), inputPath, probe, crop, encoder, crf,
+                        sampleSeconds, getContext().getCacheDir(), (index, total, sample) -> {
+                            JSObject event = new JSObject();
+                            event.put("index", index);
+                            event.put("total", total);
+                            event.put("preset", sample.preset);
+                            event.put("speed", sample.speed);
+                            event.put("kbps", sample.kbps);
+                            notifyListeners("calibrationProgress", event);
+                        });
+                    profile.save(getContext().getCacheDir());
+                    encoderProfiles.put(EncoderCalibration.key(inputClass, encoder, crf), profile);
+                }
+                
+                JSObject result = JSObject.fromJSONObject(profile.toJson());
+                result.put("success", true);
+                result.put("cached", cached);
+                result.put("elapsedMs", (System.nanoTime() - startTime) / 1_000_000);
+                call.resolve(result);
+            } catch (Exception e) {
+                Log.e(TAG, "Calibration failed: " + e.getMessage());
+                JSObject result = new JSObject();
+                result.put("success", false);
+                result.put("error", e.getMessage());
+                call.resolve(result);
+            }
+        }, "klipper-calibrate").start();
+    }
+    
+    /**
+     * The preset and thread count the calibrated profile picks for an input:
+     * { input, crop, videoCodec, crf, targetSpeed | targetSeconds + duration, parallel }.
+     * parallel is how many encodes will share the cores (e.g. the job worker
+     * count). Resolves with calibrated:false and the default preset when the
+     * input's class has no profile yet.
+     */
+    @PluginMethod
+    public void getEncoderProfile(PluginCall call) {
+        String inputPath = call.getString("input");
+        
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+        
+        try {
+            EncoderCalibration.Choice choice = autoEncoderSettings(call, inputPath, call.getBoolean("crop", false),
+                call.getString("videoCodec", "auto"), call.getDouble("duration", 0.0));
+            
+            JSObject result = choiceToJSObject(choice);
+            result.put("success", true);
+            call.resolve(result);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Encoder profile lookup failed: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
+    }
+    
+    /**
+     * JPEG frames at the given times: { input, timestamps: [], width, inline }.
+     * Each entry has the file "path" (for Capacitor.convertFileSrc) and, with
+     * inline:true, the base64 "data". Missing frames are extracted in batched
+     * keyframe-only passes; see ThumbnailCache.
+     */
+    @PluginMethod
+    public void getThumbnails(PluginCall call) {
+        String inputPath = call.getString("input");
+        JSArray timestamps = call.getArray("timestamps");
+        int width = call.getInt("width", 160);
+        boolean inline = call.getBoolean("inline", false);
+        
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+        
+        if (timestamps == null || timestamps.length() == 0) {
+            call.reject("At least one timestamp is required");
+            return;
+        }
+        
+        try {
+            long startTime = System.nanoTime();
+            double[] times = new double[timestamps.length()];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = timestamps.getDouble(i);
+            }
+            
+            // Snap to keyframes only if the index already exists; never build it just for thumbnails
+            String fingerprint = InputFingerprint.of(getContext(), inputPath);
+            KeyframeIndex index = keyframeIndexes.get(fingerprint);
+            if (index == null) {
+                index = KeyframeIndex.load(getContext().getCacheDir(), fingerprint);
+            }
+            
+            List<ThumbnailCache.Thumb> thumbs = getThumbnailCache().get(
+                getContext(), inputPath, fingerprint, times, Math.max(16, width), index, inline);
+            
+            JSArray thumbnails = new JSArray();
+            int produced = 0;
+            for (ThumbnailCache.Thumb thumb : thumbs) {
+                JSObject item = new JSObject();
+                item.put("time", thumb.time);
+                item.put("frameTime", thumb.frameTime);
+                item.put("success", thumb.source != null);
+                if (thumb.source != null) {
+                    item.put("path", thumb.file.getAbsolutePath());
+                    item.put("source", thumb.source);
+                    produced++;
+                }
+                if (thumb.data != null) {
+                    item.put("data", Base64.encodeToString(thumb.data, Base64.NO_WRAP));
+                }
+                thumbnails.put(item);
+            }
+            
+            JSObject result = new JSObject();
+            result.put("success", produced == thumbs.size());
+            result.put("thumbnails", thumbnails);
+            result.put("elapsedMs", (System.nanoTime() - startTime) / 1_000_000);
+            call.resolve(result);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Thumbnails failed: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
+    }
+    
+    /**
+     * Start building a low-resolution preview proxy for an input on the job
+     * engine: { input, height, gop, allIntra }. Resolves at once with the
+     * proxy path and, unless it already exists, the jobId; "proxyReady" fires
+     * when it is done. Renders should keep using the original input.
+     */
+    @PluginMethod
+    public void createProxy(PluginCall call) {
+        String inputPath = call.getString("input");
+        
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+        
+        try {
+            String fingerprint = InputFingerprint.of(getContext(), inputPath);
+            ProxyStore store = getProxyStore();
+            File proxy = store.lookup(fingerprint);
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("fingerprint", fingerprint);
+            result.put("path", store.file(fingerprint).getAbsolutePath());
+            
+            if (proxy != null) {
+                result.put("ready", true);
+                call.resolve(result);
+                return;
+            }
+            
+            Long running = proxyJobs.get(fingerprint);
+            if (running != null) {
+                result.put("ready", false);
+                result.put("jobId", running);
+                call.resolve(result);
+                return;
+            }
+            
+            File temp = store.tempFile(fingerprint);
+            List<String> args = ProxyStore.arguments(resolveInput(inputPath), temp,
+                call.getInt("height", ProxyStore.DEFAULT_HEIGHT),
+                call.getInt("gop", ProxyStore.DEFAULT_GOP),
+                call.getBoolean("allIntra", false));
+            
+            File pinned = InputCache.pin(inputPath);
+            JobEngine.Job job = getJobEngine().submit(args.toArray(new String[0]), new JobEngine.Listener() {
+                @Override
+                public void onProgress(JobEngine.Job job, Statistics statistics) {
+                    jobListener.onProgress(job, statistics);
+                }
+                
+                @Override
+                public void onComplete(JobEngine.Job job) {
+                    InputCache.unpin(pinned);
+                    proxyJobs.remove(fingerprint);
+                    File target = store.file(fingerprint);
+                    boolean ready = job.state == JobEngine.State.COMPLETED && temp.renameTo(target);
+                    if (ready) {
+                        store.trim(target);
+                    } else {
+                        temp.delete();
+                    }
+                    jobListener.onComplete(job);
+                    
+                    JSObject event = new JSObject();
+                    event.put("fingerprint", fingerprint);
+                    event.put("jobId", job.id);
+                    event.put("ready", ready);
+                    event.put("path", target.getAbsolutePath());
+                    if (!ready) {
+                        event.put("error", job.error != null ? job.error : job.state.name());
+                    }
+                    notifyListeners("proxyReady", event);
+                }
+            });
+            proxyJobs.put(fingerprint, job.id);
+            if (job.isFinished()) {
+                // Failed or was cancelled before we could register it; onComplete has already run
+                proxyJobs.remove(fingerprint, job.id);
+            }
+            
+            // Progress percent comes for free when the source was probed before
+            MediaProbe probe = probes.get(fingerprint);
+            if (probe == null) {
+                probe = MediaProbe.load(getContext().getCacheDir(), fingerprint);
+            }
+            if (probe != null && probe.duration > 0) {
+                progressAggregator.setDuration(job.id, probe.duration);
+            }
+            
+            result.put("ready", false);
+            result.put("jobId", job.id);
+            call.resolve(result);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Proxy failed: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
+    }
+    
+    /**
+     * Suggest cut points: one decode-only pass for scene changes and silences
+     * (SceneAnalyzer). Options: sceneThreshold, silenceNoiseDb, minSilence,
+     * fps, width, keyframesOnly, maxCandidates, force. A cached result resolves
+     * straight away with "candidates"; otherwise this resolves with the jobId
+     * and "analysisComplete" carries the candidates.
+     */
+    @PluginMethod
+    public void analyze(PluginCall call) {
+        String inputPath = call.getString("input");
+        
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+        
+        try {
+            SceneAnalyzer.Options options = new SceneAnalyzer.Options();
+            options.sceneThreshold = call.getDouble("sceneThreshold", options.sceneThreshold);
+            options.silenceNoiseDb = call.getDouble("silenceNoiseDb", options.silenceNoiseDb);
+            options.minSilence = call.getDouble("minSilence", options.minSilence);
+            options.fps = call.getInt("fps", options.fps);
+            options.width = call.getInt("width", options.width);
+            options.keyframesOnly = call.getBoolean("keyframesOnly", false);
+            options.maxCandidates = call.getInt("maxCandidates", options.maxCandidates);
+            
+            String fingerprint = InputFingerprint.of(getContext(), inputPath);
+            File cacheFile = SceneAnalyzer.cacheFile(getContext().getCacheDir(), fingerprint, options);
+            JSONArray cachedCandidates = call.getBoolean("force", false) ? null : SceneAnalyzer.load(cacheFile);
+            if (cachedCandidates != null) {
+                JSObject result = new JSObject();
+                result.put("success", true);
+                result.put("cached", true);
+                result.put("fingerprint", fingerprint);
+                result.put("candidates", cachedCandidates);
+                call.resolve(result);
+                return;
+            }
+            
+            MediaProbe probe = getMediaProbe(inputPath, fingerprint);
+            if (probe.video() == null) {
+                JSObject result = new JSObject();
+                result.put("success", false);
+                result.put("error", "Input has no video stream");
+                call.resolve(result);
+                return;
+            }
+            
+            SceneAnalyzer analyzer = new SceneAnalyzer(options);
+            List<String> args = SceneAnalyzer.arguments(resolveInput(inputPath), options, probe.audio() != null);
+            File pinned = InputCache.pin(inputPath);
+            JobEngine.Job job = getJobEngine().submit(args.toArray(new String[0]), log -> {
+                if (log.getMessage() != null) {
+                    analyzer.onLog(log.getMessage());
+                }
+            }, new JobEngine.Listener() {
+                @Override
+                public void onProgress(JobEngine.Job job, Statistics statistics) {
+                    jobListener.onProgress(job, statistics);
+                }
+                
+                @Override
+                public void onComplete(JobEngine.Job job) {
+                    InputCache.unpin(pinned);
+                    jobListener.onComplete(job);
+                    
+                    JSObject event = new JSObject();
+                    event.put("jobId", job.id);
+                    event.put("fingerprint", fingerprint);
+                    if (job.state != JobEngine.State.COMPLETED) {
+                        event.put("success", false);
+                        event.put("error", job.error != null ? job.error : job.state.name());
+                        notifyListeners("analysisComplete", event);
+                        return;
+                    }
+                    if (analyzer.detections() == 0 && analyzer.lines() == 0) {
+                        // Nothing was heard from the session: an empty result here must not be cached
+                        event.put("success", false);
+                        event.put("error", "No analysis output received");
+                        notifyListeners("analysisComplete", event);
+                        return;
+                    }
+                    try {
+                        KeyframeIndex index = getKeyframeIndex(inputPath, fingerprint);
+                        JSONArray candidates = SceneAnalyzer.toJson(analyzer.rank(index));
+                        SceneAnalyzer.save(cacheFile, candidates);
+                        event.put("success", true);
+                        event.put("detections", analyzer.detections());
+                        event.put("candidates", candidates);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Analysis result failed: " + e.getMessage());
+                        event.put("success", false);
+                        event.put("error", e.getMessage());
+                    }
+                    notifyListeners("analysisComplete", event);
+                }
+            });
+            if (probe.duration > 0) {
+                progressAggregator.setDuration(job.id, probe.duration);
+            }
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("cached", false);
+            result.put("fingerprint", fingerprint);
+            result.put("jobId", job.id);
+            call.resolve(result);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Analysis failed: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
+    }
+    
+    /** The finished proxy for an input, if there is one. */
+    @PluginMethod
+    public void getProxy(PluginCall call) {
+        String inputPath = call.getString("input");
+        
+        if (inputPath == null || inputPath.isEmpty()) {
+            call.reject("Input path is required");
+            return;
+        }
+        
+        try {
+            String fingerprint = InputFingerprint.of(getContext(), inputPath);
+            File proxy = getProxyStore().lookup(fingerprint);
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("fingerprint", fingerprint);
+            result.put("ready", proxy != null);
+            if (proxy != null) {
+                result.put("path", proxy.getAbsolutePath());
+            }
+            Long running = proxyJobs.get(fingerprint);
+            if (running != null) {
+                result.put("jobId", running);
+            }
+            call.resolve(result);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Proxy lookup failed: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
+    }
+    
+    private MediaProbe getMediaProbe(String inputPath, String fingerprint) throws IOException {
+        MediaProbe probe = probes.get(fingerprint);
+        if (probe != null) {
+            return probe;
+        }
+        
+        File cacheDir = getContext().getCacheDir();
+        probe = MediaProbe.load(cacheDir, fingerprint);
+        if (probe == null) {
+            probe = MediaProbe.probe(resolveInput(inputPath), fingerprint);
+            probe.save(cacheDir);
+        }
+        
+        probes.put(fingerprint, probe);
+        return probe;
+    }
+    
+    /** Memory, then disk, then a fresh probe pass (which is saved for next time). */
+    private KeyframeIndex getKeyframeIndex(String inputPath, String fingerprint) throws IOException {
+        KeyframeIndex index = keyframeIndexes.get(fingerprint);
+        if (index != null) {
+            return index;
+        }
+        
+        File cacheDir = getContext().getCacheDir();
+        index = KeyframeIndex.load(cacheDir, fingerprint);
+        if (index == null) {
+            index = KeyframeIndex.build(resolveInput(inputPath), fingerprint);
+            index.save(cacheDir);
+        }
+        
+        keyframeIndexes.put(fingerprint, index);
+        return index;
+    }
+    
+    /**
+     * Settings for preset "auto": the calibrated choice for this input's class
+     * and the call's crf (a profile measured at another CRF doesn't apply) at
+     * the call's targetSpeed, or mediaSeconds / targetSeconds (realtime if
+     * neither is given), shared among "parallel" encodes. mediaSeconds <= 0
+     * means the whole input. Falls back to the fixed default preset when the
+     * class hasn't been calibrated or the encoder can't be.
+     */
+    private EncoderCalibration.Choice autoEncoderSettings(PluginCall call, String inputPath, boolean crop,
+                                                         String videoCodec, double mediaSeconds) throws IOException {
+        String encoder = "auto".equals(videoCodec) ? "libx264" : videoCodec;
+        if (!EncoderCalibration.supports(encoder)) {
+            return EncoderCalibration.uncalibrated();
+        }
+        
+        String fingerprint = InputFingerprint.of(getContext(), inputPath);
+        MediaProbe probe = getMediaProbe(inputPath, fingerprint);
+        String inputClass = EncoderCalibration.inputClass(probe, crop);
+        int crf = call.getInt("crf", 23);
+        EncoderCalibration.Profile profile = inputClass != null ? loadEncoderProfile(inputClass, encoder, crf) : null;
+        if (profile == null) {
+            Log.d(TAG, "No calibration for " + inputClass + " " + encoder + " crf " + crf + ", using the default preset");
+            return EncoderCalibration.uncalibrated();
+        }
+        
+        if (mediaSeconds <= 0) {
+            mediaSeconds = probe.duration;
+        }
+        double targetSpeed = call.getDouble("targetSpeed", 0.0);
+        double targetSeconds = call.getDouble("targetSeconds", 0.0);
+        if (targetSpeed <= 0) {
+            targetSpeed = targetSeconds > 0 && mediaSeconds > 0
+                ? mediaSeconds / targetSeconds : EncoderCalibration.DEFAULT_TARGET_SPEED;
+        }
+        return profile.choose(targetSpeed, call.getInt("parallel", 1));
+    }
+    
+    /** Memory, then disk; null when the class is uncalibrated or its profile went stale. */
+    private EncoderCalibration.Profile loadEncoderProfile(String inputClass, String encoder, int crf) {
+        String key = EncoderCalibration.key(inputClass, encoder, crf);
+        EncoderCalibration.Profile profile = encoderProfiles.get(key);
+        if (profile != null && profile.isCurrent()) {
+            return profile;
+        }
+        
+        profile = EncoderCalibration.load(getContext().getCacheDir(), inputClass, encoder, crf);
+        if (profile == null) {
+            encoderProfiles.remove(key);
+            return null;
+        }
+        encoderProfiles.put(key, profile);
+        return profile;
+    }
+    
+    private static JSObject choiceToJSObject(EncoderCalibration.Choice choice) {
+        JSObject json = new JSObject();
+        json.put("preset", choice.preset);
+        json.put("threads", choice.threads);
+        json.put("calibrated", choice.calibrated);
+        if (choice.calibrated) {
+            json.put("expectedSpeed", choice.expectedSpeed);
+            json.put("meetsTarget", choice.meetsTarget);
+        }
+        return json;
+    }
+    
+    /**
+     * Start the 127.0.0.1 file server (LoopbackServer) if it isn't running and
+     * return its base URL. Files under the cache dir are served at
+     * <url>/cache/..., clips in the default output folder at <url>/clips/...;
+     * a new token is issued on every start.
+     */
+    @PluginMethod
+    public void startServer(PluginCall call) {
+        try {
+            LoopbackServer server;
+            synchronized (this) {
+                if (loopbackServer == null) {
+                    loopbackServer = new LoopbackServer();
+                    loopbackServer.addRoot("cache", getContext().getCacheDir());
+                    loopbackServer.addRoot("clips", resolveOutputDir(null));
+                }
+                server = loopbackServer;
+            }
+            server.start();
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("url", server.baseUrl());
+            result.put("port", server.getPort());
+            call.resolve(result);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Server start failed: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
+    }
+    
+    @PluginMethod
+    public void stopServer(PluginCall call) {
+        synchronized (this) {
+            if (loopbackServer != null) {
+                loopbackServer.stop();
+            }
+        }
+        
+        JSObject result = new JSObject();
+        result.put("success", true);
+        call.resolve(result);
+    }
+    
+    /** Streaming URL for a file path returned by another method (clip, proxy, thumbnail...). */
+    @PluginMethod
+    public void getServerUrl(PluginCall call) {
+        String path = call.getString("path");
+        
+        if (path == null || path.isEmpty()) {
+            call.reject("Path is required");
+            return;
+        }
+        
+        try {
+            LoopbackServer server;
+            synchronized (this) {
+                server = loopbackServer;
+            }
+            String url = server != null ? server.urlFor(new File(path)) : null;
+            
+            JSObject result = new JSObject();
+            result.put("success", url != null);
+            if (url != null) {
+                result.put("url", url);
+            } else {
+                result.put("error", server != null && server.isRunning()
+                    ? "Path is not under a served folder" : "Server is not running");
+            }
+            call.resolve(result);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Server URL failed: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
+    }
+    
+    @PluginMethod
+    public void cancel(PluginCall call) {
+        FFmpegKit.cancel();
+        
+        JSObject result = new JSObject();
+        result.put("cancelled", true);
+        call.resolve(result);
+    }
+    
+    /**
+     * Bound what is kept of FFmpeg's log: lines per session, sessions retained
+     * (also FFmpegKit's own session history, which holds full logs) and the
+     * minimum level captured ("error", "warning", "info", "verbose").
+     */
+    @PluginMethod
+    public void configureLogs(PluginCall call) {
+        int maxLines = call.getInt("maxLines", LogCapture.DEFAULT_MAX_LINES);
+        int sessions = call.getInt("sessionHistory", LogCapture.DEFAULT_MAX_SESSIONS);
+        
+        Level level;
+        switch (call.getString("level", "info")) {
+            case "error": level = Level.AV_LOG_ERROR; break;
+            case "warning": level = Level.AV_LOG_WARNING; break;
+            case "verbose": level = Level.AV_LOG_VERBOSE; break;
+            default: level = Level.AV_LOG_INFO;
+        }
+        
+        logCapture.configure(maxLines, sessions, level);
+        FFmpegKitConfig.setSessionHistorySize(logCapture.getMaxSessions());
+        
+        JSObject result = new JSObject();
+        result.put("maxLines", logCapture.getMaxLines());
+        result.put("sessionHistory", logCapture.getMaxSessions());
+        call.resolve(result);
+    }
+    
+    /** Captured log tail of a job or session, fetched on demand instead of with every result. */
+    @PluginMethod
+    public void getJobLogs(PluginCall call) {
+        Long jobId = call.getLong("jobId");
+        
+        if (jobId == null) {
+            call.reject("Job ID is required");
+            return;
+        }
+        
+        // Jobs log under the session they ran as; anything else is a session ID already
+        JobEngine engine = jobEngine;
+        JobEngine.Job job = engine != null ? engine.get(jobId) : null;
+        LogCapture.Ring ring = logCapture.get(job != null ? job.sessionId : jobId);
+        JSObject result = new JSObject();
+        result.put("jobId", jobId);
+        
+        if (ring == null) {
+            result.put("success", false);
+            result.put("error", "No logs for this job");
+            call.resolve(result);
+            return;
+        }
+        
+        JSArray lines = new JSArray();
+        for (String line : ring.tail(call.getInt("tail", DEFAULT_LOG_TAIL))) {
+            lines.put(line);
+        }
+        
+        result.put("success", true);
+        result.put("lines", lines);
+        result.put("errorLine", ring.getLastError());
+        result.put("dropped", ring.getDropped());
+        call.resolve(result);
+    }
+    
+    /**
+     * Per-stage counters and latency histograms since the last reset: copy,
+     * probe, encode (with realtime speed factor), publish and queueWait.
+     * Pass export: true/false to start or stop appending every sample to
+     * metrics.jsonl in the cache dir.
+     */
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        Metrics metrics = Metrics.get();
+        Boolean export = call.getBoolean("export");
+        if (export != null) {
+            metrics.setExport(export ? getContext().getCacheDir() : null);
+        }
+        
+        try {
+            JSObject result = JSObject.fromJSONObject(metrics.toJson());
+            result.put("success", true);
+            call.resolve(result);
+        } catch (Exception e) {
+            Log.e(TAG, "Metrics failed: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
+    }
+    
+    /** Zero every stage; the export file, if any, is kept. */
+    @PluginMethod
+    public void resetMetrics(PluginCall call) {
+        Metrics.get().reset();
+        
+        JSObject result = new JSObject();
+        result.put("success", true);
+        call.resolve(result);
+    }
+    
+    /**
+     * Size the job worker pool. Only takes effect while no job is running;
+     * defaults to half the available cores.
+     */
+    @PluginMethod
+    public void configureJobs(PluginCall call) {
+        int workers = call.getInt("workers", JobEngine.defaultWorkerCount());
+        
+        synchronized (this) {
+            if (jobEngine != null) {
+                for (JobEngine.Job job : jobEngine.list()) {
+                    if (!job.isFinished()) {
+                        call.reject("Cannot resize worker pool while jobs are active");
+                        return;
+                    }
+                }
+                jobEngine.shutdown();
+            }
+            jobEngine = new JobEngine(workers);
+        }
+        
+        JSObject result = new JSObject();
+        result.put("workers", jobEngine.getWorkerCount());
+        result.put("cores", Runtime.getRuntime().availableProcessors());
+        call.resolve(result);
+    }
+    
+    /**
+     * Queue an FFmpeg command on the job engine and return immediately.
+     * Progress arrives as "jobProgress" events (with percent/eta when the clip
+     * "duration" is given) and completion as "jobComplete".
+     */
+    @PluginMethod
+    public void submitJob(PluginCall call) {
+        String command = call.getString("command");
+        JSArray arguments = call.getArray("arguments");
+        
+        String[] args;
+        try {
+            if (arguments != null && arguments.length() > 0) {
+                args = new String[arguments.length()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = resolveInput(arguments.getString(i));
+                }
+            } else if (command != null && !command.isEmpty()) {
+                args = FFmpegKitConfig.parseArguments(resolveCommandInputs(command));
+            } else {
+                call.reject("Command or arguments are required");
+                return;
+            }
+        } catch (Exception e) {
+            call.reject("Invalid arguments: " + e.getMessage());
+            return;
+        }
+        
+        // Every -i the job reads stays out of reach of trimCache() until it ends
+        final List<File> pinned = new ArrayList<>();
+        for (int i = 0; i + 1 < args.length; i++) {
+            if ("-i".equals(args[i])) {
+                File file = InputCache.pin(args[i + 1]);
+                if (file != null) {
+                    pinned.add(file);
+                }
+            }
+        }
+        JobEngine.Job job = getJobEngine().submit(args, new JobEngine.Listener() {
+            @Override
+            public void onProgress(JobEngine.Job job, Statistics statistics) {
+                jobListener.onProgress(job, statistics);
+            }
+            
+            @Override
+            public void onComplete(JobEngine.Job job) {
+                for (File file : pinned) {
+                    InputCache.unpin(file);
+                }
+                jobListener.onComplete(job);
+            }
+        });
+        Double duration = call.getDouble("duration");
+        if (duration != null && duration > 0) {
+            progressAggregator.setDuration(job.id, duration);
+        }
+        
+        JSObject result = new JSObject();
+        result.put("jobId", job.id);
+        result.put("state", job.state.name());
+        call.resolve(result);
+    }
+    
+    @PluginMethod
+    public void getJobStatus(PluginCall call) {
+        Long jobId = call.getLong("jobId");
+        
+        if (jobId == null) {
+            call.reject("Job ID is required");
+            return;
+        }
+        
+        JobEngine.Job job = getJobEngine().get(jobId);
+        if (job == null) {
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", "Job not found");
+            call.resolve(result);
+            return;
+        }
+        
+        JSObject result = jobToJSObject(job);
+        result.put("success", true);
+        call.resolve(result);
+    }
+    
+    @PluginMethod
+    public void cancelJob(PluginCall call) {
+        Long jobId = call.getLong("jobId");
+        
+        if (jobId == null) {
+            call.reject("Job ID is required");
+            return;
+        }
+        
+        JSObject result = new JSObject();
+        result.put("jobId", jobId);
+        result.put("cancelled", getJobEngine().cancel(jobId));
+        call.resolve(result);
+    }
+    
+    private synchronized JobEngine getJobEngine() {
+        if (jobEngine == null) {
+            jobEngine = new JobEngine(JobEngine.defaultWorkerCount());
+        }
+        return jobEngine;
+    }
+    
+    private final JobEngine.Listener jobListener = new JobEngine.Listener() {
+        @Override
+        public void onProgress(JobEngine.Job job, Statistics statistics) {
+            progressAggregator.onStatistics(job.id, statistics);
+        }
+        
+        @Override
+        public void onComplete(JobEngine.Job job) {
+            progressAggregator.finish(job.id);
+            notifyListeners("jobComplete", jobToJSObject(job));
+        }
+    };
+    
+    private JSObject jobToJSObject(JobEngine.Job job) {
+        JSObject result = new JSObject();
+        result.put("jobId", job.id);
+        result.put("state", job.state.name());
+        if (job.sessionId > 0) {
+            result.put("sessionId", job.sessionId);
+        }
+        result.put("submittedAt", job.submittedAt);
+        if (job.startedAt > 0) {
+            result.put("queueWaitMs", job.startedAt - job.submittedAt);
+        }
+        if (job.finishedAt > 0 && job.startedAt > 0) {
+            result.put("elapsedMs", job.finishedAt - job.startedAt);
+        }
+        if (job.isFinished()) {
+            result.put("returnCode", job.returnCode);
+        }
+        if (job.error != null) {
+            result.put("error", job.error);
+            LogCapture.Ring ring = logCapture.get(job.sessionId);
+            if (ring != null && ring.getLastError() != null) {
+                result.put("errorLine", ring.getLastError());
+            }
+        }
+        Statistics statistics = job.lastStatistics;
+        if (statistics != null) {
+            result.put("time", statistics.getTime());
+            result.put("size", statistics.getSize());
+            result.put("speed", statistics.getSpeed());
+        }
+        return result;
+    }
+    
+    /**
+     * Publish a finished clip. Tries, in order: nothing (FFmpeg already wrote
+     * it in place), an atomic rename on the same volume, then a FileChannel
+     * transfer across volumes. Reports the strategy, bytes and elapsed time.
+     */
+    @PluginMethod
+    public void moveToPublic(PluginCall call) {
+        String sourcePath = call.getString("source");
+        String filename = call.getString("filename");
+        String destFolder = call.getString("destFolder");
+        
+        if (sourcePath == null || sourcePath.isEmpty()) {
+            call.reject("Source path is required");
+            return;
+        }
+        
+        if (filename == null || filename.isEmpty()) {
+            filename = new File(sourcePath).getName();
+        }
+        
+        Log.d(TAG, "Moving to public: " + sourcePath + " -> " + filename);
+        
+        try {
+            File sourceFile = new File(sourcePath);
+            if (!sourceFile.exists()) {
+                JSObject result = new JSObject();
+                result.put("success", false);
+                result.put("error", "Source file not found");
+                call.resolve(result);
+                return;
+            }
+            
+            File outputDir = resolveOutputDir(destFolder);
+            if (!outputDir.exists()) {
+                outputDir.mkdirs();
+            }
+            
+            File destFile = new File(outputDir, filename);
+            Published published = publishFile(getContext(), sourceFile, destFile);
+            OutputManifest.get(getContext()).relocate(sourceFile.getAbsolutePath(), destFile.getAbsolutePath());
+            
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("path", destFile.getAbsolutePath());
+            result.put("strategy", published.strategy);
+            result.put("bytes", published.bytes);
+            result.put("elapsedMs", published.elapsedMs);
+            call.resolve(result);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Move failed: " + e.getMessage());
+            JSObject result = new JSObject();
+            result.put("success", false);
+            result.put("error", e.getMessage());
+            call.resolve(result);
+        }
+    }
+    
+    static class Published {
+        String strategy;
+        long bytes;
+        long elapsedMs;
+    }
+    
+    /** Move a finished clip to its public path by the cheapest strategy that works, then scan it. */
+    static Published publishFile(Context context, File sourceFile, File destFile) throws IOException {
+        Published published = new Published();
+        long startTime = System.nanoTime();
+        published.bytes = sourceFile.length();
+        
+        if (sourceFile.getCanonicalFile().equals(destFile.getCanonicalFile())) {
+            published.strategy = "inPlace";
+        } else if (renameFile(sourceFile, destFile)) {
+            published.strategy = "rename";
+        } else {
+            try (FileInputStream input = new FileInputStream(sourceFile);
+                 FileOutputStream output = new FileOutputStream(destFile)) {
+                published.bytes = StreamCopy.transferFully(input, output.getChannel());
+            }
+            long expected = sourceFile.length();
+            if (published.bytes != expected || destFile.length() != expected) {
+                // Keep the source; a short copy must never cost the user their clip
+                destFile.delete();
+                throw new IOException("Copy to " + destFile.getName() + " was incomplete ("
+                    + published.bytes + " of " + expected + " bytes)");
+            }
+            sourceFile.delete();
+            published.strategy = "transfer";
+        }
+        
+        published.elapsedMs = (System.nanoTime() - startTime) / 1_000_000;
+        // Only a transfer moves bytes; counting renames would make throughput meaningless
+        Metrics.get().record(Metrics.PUBLISH, System.nanoTime() - startTime,
+            "transfer".equals(published.strategy) ? published.bytes : 0, 0);
+        
+        // Scan file so it appears in gallery
+        MediaScannerConnection.scanFile(context, 
+            new String[]{destFile.getAbsolutePath()}, 
+            new String[]{"video/mp4"}, 
+            null);
+        
+        Log.d(TAG, "Moved to: " + destFile.getAbsolutePath() + " (" + published.strategy + ", "
+            + published.bytes + " bytes, " + published.elapsedMs + " ms)");
+        return published;
+    }
+    
+    /**
+     * Check whether FFmpeg can write straight into the public destination.
+     * When it can, clips should be rendered there and moveToPublic becomes a no-op.
+     */
+    @PluginMethod
+    public void checkOutputFolder(PluginCall call) {
+        File outputDir = resolveOutputDir(call.getString("destFolder"));
+        
+        boolean writable = false;
+        try {
+            if (!outputDir.exists()) {
+                outputDir.mkdirs();
+            }
+            File probe = new File(outputDir, ".klipper_write_test");
+            writable = probe.createNewFile() || probe.exists();
+            probe.delete();
+        } catch (Exception e) {
+            Log.d(TAG, "Output folder not writable: " + e.getMessage());
+        }
+        
+        JSObject result = new JSObject();
+        result.put("path", outputDir.getAbsolutePath());
+        result.put("writable", writable);
+        call.resolve(result);
+    }
+    
+    static File resolveOutputDir(String destFolder) {
+        // Use custom folder or default to Movies/Klipper
+        if (destFolder != null && !destFolder.isEmpty()) {
+            return new File(destFolder);
+        }
+        return new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES), "Klipper");
+    }
+    
+    private static boolean renameFile(File source, File dest) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            try {
+                Files.move(source.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (Exception e) {
+                // Different volume (e.g. internal cache -> sdcard); caller falls back to a copy
+                Log.d(TAG, "Atomic move unavailable: " + e.getMessage());
+                return false;
+            }
+        }
+        return source.renameTo(dest);
+    }
+    
+    @PluginMethod
+    public void checkStoragePermission(PluginCall call) {
+        boolean hasPermission = false;
+        
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // Android 11+ - use MANAGE_EXTERNAL_STORAGE or scoped storage
+            hasPermission = Environment.isExternalStorageManager() || 
+                            ContextCompat.checkSelfPermission(getContext(), Manifest.permission.READ_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // Android 6-10
+            hasPermission = ContextCompat.checkSelfPermission(getContext(), Manifest.permission.WRITE_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED;
+        } else {
+            // Below Android 6 - permission granted at install
+            hasPermission = true;
+        }
+        
+        JSObject result = new JSObject();
+        result.put("granted", hasPermission);
+        result.put("androidVersion", Build.VERSION.SDK_INT);
+        call.resolve(result);
+    }
+    
+    @PluginMethod
+    public void requestStoragePermission(PluginCall call) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // Android 11+ - Open app settings for "All Files Access" permission
+            try {
+                Intent intent = new Intent(Settings.ACTION_MANAGE_APP_ALL_FILES_ACCESS_PERMISSION);
                 intent.setData(Uri.parse("package:" + getContext().getPackageName()));
                 getActivity().startActivity(intent);
                 
@@ -529,25 +2889,7 @@ public class FFmpegPlugin extends Plugin {
     @PluginMethod
     public void getFontPath(PluginCall call) {
         try {
-            // Copy font from assets to cache if not already there
-            File cacheDir = getContext().getCacheDir();
-            File fontFile = new File(cacheDir, "Roboto-Regular.ttf");
-            
-            if (!fontFile.exists()) {
-                // Copy from assets
-                InputStream is = getContext().getAssets().open("fonts/Roboto-Regular.ttf");
-                OutputStream os = new FileOutputStream(fontFile);
-                
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = is.read(buffer)) != -1) {
-                    os.write(buffer, 0, bytesRead);
-                }
-                
-                os.close();
-                is.close();
-                Log.d(TAG, "Font copied to: " + fontFile.getAbsolutePath());
-            }
+            File fontFile = ensureFontFile();
             
             JSObject result = new JSObject();
             result.put("path", fontFile.getAbsolutePath());
@@ -561,4 +2903,21 @@ public class FFmpegPlugin extends Plugin {
             call.resolve(result);
         }
     }
+    
+    private File ensureFontFile() throws IOException {
+        // Copy font from assets to cache if not already there
+        File cacheDir = getContext().getCacheDir();
+        File fontFile = new File(cacheDir, "Roboto-Regular.ttf");
+        
+        if (!fontFile.exists()) {
+            // Copy from assets
+            try (InputStream is = getContext().getAssets().open("fonts/Roboto-Regular.ttf");
+                 OutputStream os = new FileOutputStream(fontFile)) {
+                StreamCopy.copy(is, os, StreamCopy.BUFFER_SIZE);
+            }
+            Log.d(TAG, "Font copied to: " + fontFile.getAbsolutePath());
+        }
+        
+        return fontFile;
+    }
 }
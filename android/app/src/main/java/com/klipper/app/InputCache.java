@@ -0,0 +1,223 @@
+package com.klipper.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copies of picked videos in the cache dir, one per distinct content.
+ *
+ * Entries are named after their InputFingerprint, so re-picking the same video
+ * finds the existing copy instead of writing another multi-GB file. Recency is
+ * the file's modification time (touched on every hit), which keeps the LRU
+ * order across app restarts without a separate index. The total size is kept
+ * under a byte budget by evicting least recently used entries.
+ *
+ * Files a running job reads from (or a copy is still writing) are pinned and
+ * survive any trim; pins are per process, shared by the plugin and the service.
+ */
+final class InputCache {
+
+    private static final String TAG = "InputCache";
+    static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024 * 1024;
+
+    private static final Map<String, Pin> pins = new HashMap<>();
+
+    private static class Pin {
+        int count;
+        long since;
+    }
+
+    private final File dir;
+    private final File legacyDir;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long evictedBytes;
+
+    InputCache(File cacheDir) {
+        this.dir = new File(cacheDir, "inputs");
+        this.legacyDir = cacheDir;
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** The cached copy for a fingerprint (marked as just used), or null. */
+    synchronized File lookup(String fingerprint) {
+        File file = entryFile(fingerprint);
+        if (file.exists() && file.length() > 0) {
+            file.setLastModified(System.currentTimeMillis());
+            hits++;
+            return file;
+        }
+        misses++;
+        return null;
+    }
+
+    /** Where a new entry should be written; rename a finished temp file onto it. */
+    File entryFile(String fingerprint) {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return new File(dir, fingerprint + ".mp4");
+    }
+
+    File tempFile(String fingerprint) {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return new File(dir, fingerprint + ".part");
+    }
+
+    /** Keep a file from being trimmed until the matching {@link #unpin(File)}; pins nest. */
+    static void pin(File file) {
+        synchronized (pins) {
+            Pin pin = pins.get(file.getAbsolutePath());
+            if (pin == null) {
+                pin = new Pin();
+                pin.since = System.currentTimeMillis();
+                pins.put(file.getAbsolutePath(), pin);
+            }
+            pin.count++;
+        }
+    }
+
+    /** Pin a job's input when it is a local file; returns what to unpin, or null for a URI. */
+    static File pin(String path) {
+        if (path == null || !path.startsWith("/")) {
+            return null;
+        }
+        File file = new File(path);
+        pin(file);
+        return file;
+    }
+
+    static void unpin(File file) {
+        if (file == null) {
+            return;
+        }
+        synchronized (pins) {
+            Pin pin = pins.get(file.getAbsolutePath());
+            if (pin != null && --pin.count <= 0) {
+                pins.remove(file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Evict least recently used entries until the cache fits the budget.
+     * {@code keep} (the entry just added or in use) and pinned files are
+     * never evicted.
+     */
+    synchronized long trim(long budget, File keep) {
+        deleteLegacyCopies();
+
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        Map<String, Pin> pinned;
+        long activeCopySince = Long.MAX_VALUE;
+        synchronized (pins) {
+            pinned = new HashMap<>(pins);
+        }
+        for (Map.Entry<String, Pin> entry : pinned.entrySet()) {
+            if (entry.getKey().endsWith(".part")) {
+                activeCopySince = Math.min(activeCopySince, entry.getValue().since);
+            }
+        }
+
+        long total = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(".part")) {
+                // Left behind by an interrupted copy, unless written since the oldest running one started
+                if (!pinned.containsKey(file.getAbsolutePath()) && file.lastModified() < activeCopySince) {
+                    file.delete();
+                }
+                continue;
+            }
+            total += file.length();
+        }
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+        long freed = 0;
+        for (File file : files) {
+            if (total <= budget) {
+                break;
+            }
+            if (!file.exists() || file.equals(keep) || file.getName().endsWith(".part")
+                || pinned.containsKey(file.getAbsolutePath())) {
+                continue;
+            }
+            long size = file.length();
+            if (file.delete()) {
+                total -= size;
+                freed += size;
+                evictions++;
+                evictedBytes += size;
+                Log.d(TAG, "Evicted " + file.getName() + " (" + size + " bytes)");
+            }
+        }
+        return freed;
+    }
+
+    synchronized long trim(File keep) {
+        return trim(maxBytes, keep);
+    }
+
+    synchronized Stats stats() {
+        Stats stats = new Stats();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().endsWith(".part")) {
+                    stats.entries++;
+                    stats.bytes += file.length();
+                }
+            }
+        }
+        stats.maxBytes = maxBytes;
+        stats.hits = hits;
+        stats.misses = misses;
+        stats.evictions = evictions;
+        stats.evictedBytes = evictedBytes;
+        return stats;
+    }
+
+    static class Stats {
+        int entries;
+        long bytes;
+        long maxBytes;
+        long hits;
+        long misses;
+        long evictions;
+        long evictedBytes;
+    }
+
+    /** Copies made before the cache existed were never cleaned up. */
+    private void deleteLegacyCopies() {
+        File[] legacy = legacyDir.listFiles((parent, name) -> name.startsWith("ffmpeg_input_"));
+        if (legacy == null) {
+            return;
+        }
+        for (File file : legacy) {
+            long size = file.length();
+            if (file.delete()) {
+                evictedBytes += size;
+                Log.d(TAG, "Deleted legacy copy " + file.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.klipper.app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Cheap content fingerprint for an input video: the byte size plus a hash of
+ * a few sampled blocks (head, middle, tail). Reads at most 192 KB no matter how
+ * large the file is, and is stable across copies and re-picks of the same file.
+ */
+final class InputFingerprint {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private InputFingerprint() {
+    }
+
+    /** Fingerprint a file path or content:// URI. */
+    static String of(Context context, String input) throws IOException {
+        if (input.startsWith("content://")) {
+            try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(Uri.parse(input), "r")) {
+                if (pfd == null) {
+                    throw new IOException("Cannot open " + input);
+                }
+                // Not closed on purpose: the stream doesn't own the descriptor, pfd does
+                FileChannel channel = new FileInputStream(pfd.getFileDescriptor()).getChannel();
+                return of(channel, pfd.getStatSize());
+            }
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(new File(input), "r")) {
+            return of(file.getChannel(), file.length());
+        }
+    }
+
+    static String of(FileChannel channel, long size) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        long[] offsets = size <= 3L * BLOCK_SIZE
+            ? new long[] { 0, BLOCK_SIZE, 2L * BLOCK_SIZE }
+            : new long[] { 0, size / 2 - BLOCK_SIZE / 2, size - BLOCK_SIZE };
+
+        for (long offset : offsets) {
+            buffer.clear();
+            long position = offset;
+            int read;
+            while (buffer.hasRemaining() && (read = channel.read(buffer, position)) > 0) {
+                position += read;
+            }
+            buffer.flip();
+            digest.update(buffer);
+        }
+
+        byte[] hash = digest.digest();
+        StringBuilder hex = new StringBuilder(Long.toHexString(size)).append('-');
+        for (int i = 0; i < 10; i++) {
+            hex.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(hash[i] & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
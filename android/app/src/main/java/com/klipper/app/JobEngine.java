@@ -0,0 +1,262 @@
+package com.klipper.app;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import com.arthenica.ffmpegkit.FFmpegKit;
+import com.arthenica.ffmpegkit.FFmpegKitConfig;
+import com.arthenica.ffmpegkit.FFmpegSession;
+import com.arthenica.ffmpegkit.LogCallback;
+import com.arthenica.ffmpegkit.ReturnCode;
+import com.arthenica.ffmpegkit.Statistics;
+
+/**
+ * Runs FFmpeg jobs on a bounded pool of worker threads.
+ * Every job owns exactly one FFmpegKit session, so a single job can be
+ * cancelled without touching the others. The session is only created when
+ * the job starts: creating it adds it to FFmpegKit's bounded session history,
+ * and a long queue would push out the sessions (and logs) of jobs that just
+ * finished. Jobs therefore have their own IDs, counted from far above any
+ * session ID so the two can share progress events and log lookups.
+ */
+class JobEngine {
+
+    private static final String TAG = "JobEngine";
+    private static final int MAX_FINISHED_JOBS = 100;
+    private static final long FIRST_JOB_ID = 1L << 32;
+    private static final AtomicLong nextId = new AtomicLong(FIRST_JOB_ID);
+
+    enum State { QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    interface Listener {
+        void onProgress(Job job, Statistics statistics);
+        void onComplete(Job job);
+    }
+
+    static class Job {
+        private static final AtomicReferenceFieldUpdater<Job, State> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Job.class, State.class, "state");
+
+        final long id;
+        final String[] arguments;
+        final LogCallback logCallback;
+        final Listener listener;
+        /** Set when the job starts; dropped once it finishes: FFmpegKit sessions hold their full log. */
+        volatile FFmpegSession session;
+        /** The FFmpegKit session ID once started (for its captured log), 0 before. */
+        volatile long sessionId;
+        final long submittedAt = System.currentTimeMillis();
+
+        volatile State state = State.QUEUED;
+        volatile long startedAt;
+        volatile long finishedAt;
+        volatile Statistics lastStatistics;
+        volatile int returnCode;
+        volatile String error;
+        volatile Future<?> future;
+
+        Job(String[] arguments, LogCallback logCallback, Listener listener) {
+            this.id = nextId.getAndIncrement();
+            this.arguments = arguments;
+            this.logCallback = logCallback;
+            this.listener = listener;
+        }
+
+        /** Move from one state to another only if no one else (run or cancel) got there first. */
+        boolean transition(State from, State to) {
+            return STATE.compareAndSet(this, from, to);
+        }
+
+        boolean isFinished() {
+            return state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED;
+        }
+    }
+
+    private final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+    private final int workerCount;
+
+    JobEngine(int workerCount) {
+        this.workerCount = Math.max(1, workerCount);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(
+            this.workerCount, this.workerCount,
+            30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "klipper-job-" + threadIndex.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            });
+        ((ThreadPoolExecutor) this.workers).allowCoreThreadTimeOut(true);
+    }
+
+    /** Half the cores: each FFmpeg encode is itself multi-threaded. */
+    static int defaultWorkerCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    int getWorkerCount() {
+        return workerCount;
+    }
+
+    Job submit(String[] arguments, Listener listener) {
+        return submit(arguments, null, listener);
+    }
+
+    /** @param logCallback per-session log lines (in addition to the global capture), or null */
+    Job submit(String[] arguments, LogCallback logCallback, Listener listener) {
+        pruneFinished();
+
+        Job job = new Job(arguments, logCallback, listener);
+        jobs.put(job.id, job);
+
+        job.future = workers.submit(() -> run(job));
+        Log.d(TAG, "Job " + job.id + " queued");
+        return job;
+    }
+
+    private void run(Job job) {
+        // A cancel that won the race has already finished and reported the job
+        if (!job.transition(State.QUEUED, State.RUNNING)) {
+            return;
+        }
+
+        job.startedAt = System.currentTimeMillis();
+        Metrics.get().record(Metrics.QUEUE_WAIT, (job.startedAt - job.submittedAt) * 1_000_000L);
+        long startNanos = System.nanoTime();
+
+        Listener listener = job.listener;
+        try {
+            FFmpegSession session = FFmpegSession.create(job.arguments, null, job.logCallback, statistics -> {
+                job.lastStatistics = statistics;
+                if (listener != null) {
+                    listener.onProgress(job, statistics);
+                }
+            });
+            job.sessionId = session.getSessionId();
+            job.session = session;
+            Log.d(TAG, "Job " + job.id + " started as session " + job.sessionId
+                + " on " + Thread.currentThread().getName());
+
+            // cancel() may have run between the transition and publishing the session
+            if (job.state != State.CANCELLED) {
+                FFmpegKitConfig.ffmpegExecute(session);
+            }
+
+            ReturnCode returnCode = session.getReturnCode();
+            job.returnCode = returnCode != null ? returnCode.getValue() : -1;
+
+            // Every end state is a transition from RUNNING: a cancel that already
+            // won (and was reported as such to its caller) stays CANCELLED
+            if (ReturnCode.isSuccess(returnCode)) {
+                job.transition(State.RUNNING, State.COMPLETED);
+            } else if (ReturnCode.isCancel(returnCode)) {
+                job.transition(State.RUNNING, State.CANCELLED);
+            } else {
+                String stackTrace = session.getFailStackTrace();
+                fail(job, stackTrace != null && !stackTrace.isEmpty()
+                    ? stackTrace
+                    : "FFmpeg failed with return code " + job.returnCode);
+            }
+        } catch (Exception e) {
+            fail(job, "Exception: " + e.getMessage());
+        }
+
+        job.session = null;
+        job.finishedAt = System.currentTimeMillis();
+        Statistics statistics = job.lastStatistics;
+        Metrics.get().record(Metrics.ENCODE, System.nanoTime() - startNanos, 0,
+            statistics != null ? (long) statistics.getTime() : 0);
+        Log.d(TAG, "Job " + job.id + " " + job.state + " in " + (job.finishedAt - job.startedAt) + " ms");
+
+        if (listener != null) {
+            listener.onComplete(job);
+        }
+    }
+
+    private static void fail(Job job, String error) {
+        job.error = error;
+        if (!job.transition(State.RUNNING, State.FAILED)) {
+            // Cancelled meanwhile; the failure is just the cancel taking effect
+            job.error = null;
+        }
+    }
+
+    Job get(long id) {
+        return jobs.get(id);
+    }
+
+    List<Job> list() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Cancel one job. A queued job is dropped before it starts and reported
+     * to its listener right away; a running job has only its own FFmpegKit
+     * session cancelled and is reported when that session returns.
+     */
+    boolean cancel(long id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+
+        if (job.transition(State.QUEUED, State.CANCELLED)) {
+            job.finishedAt = System.currentTimeMillis();
+            if (job.future != null) {
+                job.future.cancel(false);
+            }
+            Log.d(TAG, "Job " + id + " cancelled before it started");
+            if (job.listener != null) {
+                job.listener.onComplete(job);
+            }
+            return true;
+        }
+
+        if (!job.transition(State.RUNNING, State.CANCELLED)) {
+            return false;
+        }
+        // Not yet published: run() sees CANCELLED after publishing and skips the session
+        FFmpegSession session = job.session;
+        if (session != null) {
+            FFmpegKit.cancel(session.getSessionId());
+        }
+        Log.d(TAG, "Job " + id + " cancel requested");
+        return true;
+    }
+
+    void shutdown() {
+        for (Job job : jobs.values()) {
+            cancel(job.id);
+        }
+        workers.shutdownNow();
+    }
+
+    private void pruneFinished() {
+        if (jobs.size() < MAX_FINISHED_JOBS) {
+            return;
+        }
+        Job oldest = null;
+        for (Job job : jobs.values()) {
+            if (job.isFinished() && (oldest == null || job.finishedAt < oldest.finishedAt)) {
+                oldest = job;
+            }
+        }
+        if (oldest != null) {
+            jobs.remove(oldest.id);
+        }
+    }
+}
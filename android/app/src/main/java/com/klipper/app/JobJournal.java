@@ -0,0 +1,245 @@
+package com.klipper.app;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Append-only record of batch and part states, so a batch interrupted by the
+ * process being killed resumes at its first unfinished part instead of from
+ * scratch.
+ *
+ * One tab-separated line per event, synced to disk before the call returns:
+ *
+ *   B  batchId  specJson               batch submitted
+ *   P  batchId  index  R|D|F  detail   part running / done (path) / failed (error)
+ *   E  batchId  state                  batch finished
+ *
+ * Replay is last-record-wins; a torn last line from a crash is skipped. The
+ * file is rewritten on load with only live batches plus the most recent
+ * finished ones, so it never grows past a few batches.
+ */
+final class JobJournal {
+
+    private static final String TAG = "JobJournal";
+    private static final int KEEP_FINISHED = 20;
+
+    enum PartState { PENDING, RUNNING, DONE, FAILED }
+
+    static final String RUNNING = "running";
+    static final String COMPLETED = "completed";
+    static final String FAILED = "failed";
+    static final String CANCELLED = "cancelled";
+
+    static class Batch {
+        final String id;
+        final JSONObject spec;
+        final PartState[] parts;
+        final String[] details;
+        volatile String state = RUNNING;
+
+        Batch(String id, JSONObject spec) {
+            this.id = id;
+            this.spec = spec;
+            JSONArray specParts = spec.optJSONArray("parts");
+            int count = specParts != null ? specParts.length() : 0;
+            this.parts = new PartState[count];
+            this.details = new String[count];
+            for (int i = 0; i < count; i++) {
+                parts[i] = PartState.PENDING;
+            }
+        }
+
+        boolean isFinished() {
+            return !RUNNING.equals(state);
+        }
+
+        /** First part not yet done or failed, or -1. A part left RUNNING by a crash counts as unfinished. */
+        int nextPart() {
+            for (int i = 0; i < parts.length; i++) {
+                if (parts[i] == PartState.PENDING || parts[i] == PartState.RUNNING) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final File file;
+    private final Map<String, Batch> batches = new LinkedHashMap<>();
+
+    JobJournal(File file) {
+        this.file = file;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        replay();
+        compact();
+    }
+
+    synchronized Batch add(JSONObject spec) throws IOException {
+        String id = "b" + System.currentTimeMillis();
+        while (batches.containsKey(id)) {
+            id = id + "_";
+        }
+        Batch batch = new Batch(id, spec);
+        append("B\t" + id + "\t" + spec.toString());
+        batches.put(id, batch);
+        return batch;
+    }
+
+    synchronized void setPart(Batch batch, int index, PartState state, String detail) throws IOException {
+        String code = state == PartState.RUNNING ? "R" : state == PartState.DONE ? "D" : "F";
+        append("P\t" + batch.id + "\t" + index + "\t" + code + "\t" + clean(detail));
+        batch.parts[index] = state;
+        batch.details[index] = detail;
+    }
+
+    synchronized void finish(Batch batch, String state) throws IOException {
+        if (batch.isFinished()) {
+            return;
+        }
+        append("E\t" + batch.id + "\t" + state);
+        batch.state = state;
+    }
+
+    synchronized Batch get(String id) {
+        return batches.get(id);
+    }
+
+    synchronized List<Batch> list() {
+        return new ArrayList<>(batches.values());
+    }
+
+    /** Oldest batch that still has work, or null. */
+    synchronized Batch nextPending() {
+        for (Batch batch : batches.values()) {
+            if (!batch.isFinished()) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private void append(String record) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write((record + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    private static String clean(String detail) {
+        return detail == null ? "" : detail.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    private void replay() {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    apply(line);
+                } catch (JSONException | RuntimeException e) {
+                    Log.w(TAG, "Skipping bad journal record: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read journal: " + e.getMessage());
+        }
+    }
+
+    private void apply(String line) throws JSONException {
+        String[] fields = line.split("\t", 5);
+        if (fields.length < 3) {
+            return;
+        }
+        if ("B".equals(fields[0])) {
+            batches.put(fields[1], new Batch(fields[1], new JSONObject(fields[2])));
+            return;
+        }
+        Batch batch = batches.get(fields[1]);
+        if (batch == null) {
+            return;
+        }
+        if ("E".equals(fields[0])) {
+            batch.state = fields[2];
+        } else if ("P".equals(fields[0]) && fields.length >= 4) {
+            int index = Integer.parseInt(fields[2]);
+            if (index < 0 || index >= batch.parts.length) {
+                return;
+            }
+            String code = fields[3];
+            batch.parts[index] = "D".equals(code) ? PartState.DONE
+                : "F".equals(code) ? PartState.FAILED : PartState.RUNNING;
+            batch.details[index] = fields.length == 5 && !fields[4].isEmpty() ? fields[4] : null;
+        }
+    }
+
+    /** Rewrite the file with live batches and the newest finished ones. */
+    private void compact() {
+        int finished = 0;
+        for (Batch batch : batches.values()) {
+            if (batch.isFinished()) {
+                finished++;
+            }
+        }
+        List<String> dropped = new ArrayList<>();
+        for (Batch batch : batches.values()) {
+            if (finished <= KEEP_FINISHED) {
+                break;
+            }
+            if (batch.isFinished()) {
+                dropped.add(batch.id);
+                finished--;
+            }
+        }
+        for (String id : dropped) {
+            batches.remove(id);
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            StringBuilder records = new StringBuilder();
+            for (Batch batch : batches.values()) {
+                records.append("B\t").append(batch.id).append('\t').append(batch.spec.toString()).append('\n');
+                for (int i = 0; i < batch.parts.length; i++) {
+                    if (batch.parts[i] == PartState.DONE || batch.parts[i] == PartState.FAILED) {
+                        records.append("P\t").append(batch.id).append('\t').append(i).append('\t')
+                            .append(batch.parts[i] == PartState.DONE ? "D" : "F").append('\t')
+                            .append(clean(batch.details[i])).append('\n');
+                    }
+                }
+                if (batch.isFinished()) {
+                    records.append("E\t").append(batch.id).append('\t').append(batch.state).append('\n');
+                }
+            }
+            out.write(records.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to compact journal: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+}
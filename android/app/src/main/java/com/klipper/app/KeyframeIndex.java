@@ -0,0 +1,204 @@
+package com.klipper.app;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.arthenica.ffmpegkit.FFprobeKit;
+import com.arthenica.ffmpegkit.FFprobeSession;
+import com.arthenica.ffmpegkit.ReturnCode;
+
+/**
+ * Timestamps and byte offsets of every video keyframe in an input.
+ * Times are relative to the container's start_time, the same clock -ss and
+ * the player use, not raw packet pts.
+ * Built from one ffprobe packet pass (demux only, nothing is decoded) and
+ * stored as a small binary file named after the input's fingerprint, so the
+ * same video is never scanned twice.
+ */
+final class KeyframeIndex {
+
+    private static final String TAG = "KeyframeIndex";
+    private static final int MAGIC = 0x4b465832; // "KFX2": times relative to start_time
+
+    final String fingerprint;
+    final double[] times;
+    final long[] offsets;
+
+    private KeyframeIndex(String fingerprint, double[] times, long[] offsets) {
+        this.fingerprint = fingerprint;
+        this.times = times;
+        this.offsets = offsets;
+    }
+
+    int size() {
+        return times.length;
+    }
+
+    /** Index of the last keyframe at or before the given time, or -1. */
+    int floorIndex(double seconds) {
+        int i = Arrays.binarySearch(times, seconds);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /** Last keyframe at or before the given time (0 if there is none). */
+    double floor(double seconds) {
+        int i = floorIndex(seconds);
+        return i >= 0 ? times[i] : 0;
+    }
+
+    /** First keyframe at or after the given time (the time itself if there is none). */
+    double ceil(double seconds) {
+        int i = Arrays.binarySearch(times, seconds);
+        int index = i >= 0 ? i : -i - 1;
+        return index < times.length ? times[index] : seconds;
+    }
+
+    static File cacheFile(File cacheDir, String fingerprint) {
+        return new File(new File(cacheDir, "keyframes"), fingerprint + ".kfi");
+    }
+
+    /** Load the cached index for a fingerprint, or null if there is none (or it's unreadable). */
+    static KeyframeIndex load(File cacheDir, String fingerprint) {
+        File file = cacheFile(cacheDir, fingerprint);
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int count = in.readInt();
+            double[] times = new double[count];
+            long[] offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                times[i] = in.readDouble();
+                offsets[i] = in.readLong();
+            }
+            return new KeyframeIndex(fingerprint, times, offsets);
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable index " + file.getName() + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    /** Probe the input's video packets and keep only the keyframes. */
+    static KeyframeIndex build(String ffmpegInput, String fingerprint) throws IOException {
+        long startTime = System.nanoTime();
+        FFprobeSession session = FFprobeKit.executeWithArguments(new String[] {
+            "-v", "error",
+            "-select_streams", "v:0",
+            "-show_entries", "packet=pts_time,pos,flags:format=start_time",
+            "-of", "csv=p=0",
+            ffmpegInput
+        });
+        Metrics.get().record(Metrics.PROBE, System.nanoTime() - startTime);
+
+        if (!ReturnCode.isSuccess(session.getReturnCode())) {
+            throw new IOException("ffprobe failed with return code " + session.getReturnCode().getValue());
+        }
+
+        String output = session.getOutput();
+        double[] times = new double[256];
+        long[] offsets = new long[256];
+        int count = 0;
+        double formatStart = 0;
+
+        // Each packet line is "pts_time,pos,flags", e.g. "12.345000,1048576,K_";
+        // the last line is the format's start_time
+        int lineStart = 0;
+        int length = output != null ? output.length() : 0;
+        while (lineStart < length) {
+            int lineEnd = output.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = length;
+            }
+            String line = output.substring(lineStart, lineEnd).trim();
+            lineStart = lineEnd + 1;
+
+            String[] fields = line.split(",");
+            if (fields.length == 1) {
+                try {
+                    formatStart = Double.parseDouble(fields[0]);
+                } catch (NumberFormatException e) {
+                    // N/A: timestamps already start at 0
+                }
+                continue;
+            }
+            if (fields.length < 3 || fields[2].indexOf('K') < 0) {
+                continue;
+            }
+            try {
+                double time = Double.parseDouble(fields[0]);
+                long offset = "N/A".equals(fields[1]) ? -1 : Long.parseLong(fields[1]);
+                if (count == times.length) {
+                    times = Arrays.copyOf(times, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                times[count] = time;
+                offsets[count] = offset;
+                count++;
+            } catch (NumberFormatException e) {
+                // pts_time is N/A for some packets; they can't be seeked to anyway
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            times[i] -= formatStart;
+        }
+
+        // Packets come in decode order; B-frame reordering can leave keyframes unsorted
+        KeyframeIndex index = sorted(fingerprint, Arrays.copyOf(times, count), Arrays.copyOf(offsets, count));
+        Log.d(TAG, "Indexed " + count + " keyframes for " + fingerprint);
+        return index;
+    }
+
+    void save(File cacheDir) throws IOException {
+        File file = cacheFile(cacheDir, fingerprint);
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+
+        // Write to a temp file and rename so a crash never leaves a torn index behind
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(times.length);
+            for (int i = 0; i < times.length; i++) {
+                out.writeDouble(times[i]);
+                out.writeLong(offsets[i]);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot write " + file.getName());
+        }
+    }
+
+    private static KeyframeIndex sorted(String fingerprint, double[] times, long[] offsets) {
+        Integer[] order = new Integer[times.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(times[a], times[b]));
+
+        double[] sortedTimes = new double[times.length];
+        long[] sortedOffsets = new long[offsets.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedTimes[i] = times[order[i]];
+            sortedOffsets[i] = offsets[order[i]];
+        }
+        return new KeyframeIndex(fingerprint, sortedTimes, sortedOffsets);
+    }
+}
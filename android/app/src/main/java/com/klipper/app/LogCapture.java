@@ -0,0 +1,158 @@
+package com.klipper.app;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.arthenica.ffmpegkit.Level;
+import com.arthenica.ffmpegkit.Log;
+
+/**
+ * Keeps a fixed-size ring of recent log lines per FFmpegKit session, instead
+ * of the full session output. Installed as FFmpegKit's global log callback, so
+ * every session (execute, jobs, batch) is captured the same way.
+ *
+ * Memory is bounded three ways: lines per session, characters per line and
+ * number of sessions retained. The most recent error-level line of each
+ * session is kept separately so failures can be reported in one line.
+ */
+final class LogCapture {
+
+    static final int DEFAULT_MAX_LINES = 200;
+    static final int DEFAULT_MAX_SESSIONS = 10;
+    private static final int MAX_LINE_LENGTH = 512;
+
+    static final class Ring {
+        private final String[] lines;
+        private final StringBuilder partial = new StringBuilder();
+        private int next;
+        private int count;
+        private long dropped;
+        private String lastError;
+
+        Ring(int capacity) {
+            this.lines = new String[Math.max(1, capacity)];
+        }
+
+        synchronized void append(String message, boolean isError) {
+            // FFmpeg delivers lines in fragments; only whole lines go into the ring
+            int start = 0;
+            int newline;
+            while ((newline = message.indexOf('\n', start)) >= 0) {
+                partial.append(message, start, newline);
+                push(partial.toString(), isError);
+                partial.setLength(0);
+                start = newline + 1;
+            }
+            if (start < message.length() && partial.length() < MAX_LINE_LENGTH) {
+                partial.append(message, start, Math.min(message.length(), start + MAX_LINE_LENGTH - partial.length()));
+            }
+        }
+
+        private void push(String line, boolean isError) {
+            String trimmed = line.length() > MAX_LINE_LENGTH ? line.substring(0, MAX_LINE_LENGTH) : line;
+            if (trimmed.trim().isEmpty()) {
+                return;
+            }
+            if (isError) {
+                lastError = trimmed.trim();
+            }
+            if (count == lines.length) {
+                dropped++;
+            } else {
+                count++;
+            }
+            lines[next] = trimmed;
+            next = (next + 1) % lines.length;
+        }
+
+        /** Up to the last {@code tail} lines, oldest first. */
+        synchronized List<String> tail(int tail) {
+            int n = Math.min(Math.max(0, tail), count);
+            List<String> result = new ArrayList<>(n);
+            for (int i = n; i > 0; i--) {
+                result.add(lines[(next - i + lines.length) % lines.length]);
+            }
+            return result;
+        }
+
+        synchronized String tailAsString(int tail) {
+            StringBuilder text = new StringBuilder();
+            for (String line : tail(tail)) {
+                text.append(line).append('\n');
+            }
+            return text.toString();
+        }
+
+        synchronized String getLastError() {
+            return lastError;
+        }
+
+        synchronized long getDropped() {
+            return dropped;
+        }
+
+        synchronized int size() {
+            return count;
+        }
+    }
+
+    private final Map<Long, Ring> rings;
+    private volatile int maxLines = DEFAULT_MAX_LINES;
+    private volatile int maxSessions = DEFAULT_MAX_SESSIONS;
+    private volatile int levelThreshold = Level.AV_LOG_INFO.getValue();
+
+    LogCapture() {
+        rings = new LinkedHashMap<Long, Ring>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Ring> eldest) {
+                return size() > maxSessions;
+            }
+        };
+    }
+
+    /** Applies to sessions captured from now on. */
+    void configure(int maxLines, int maxSessions, Level level) {
+        this.maxLines = Math.max(1, maxLines);
+        this.maxSessions = Math.max(1, maxSessions);
+        this.levelThreshold = level.getValue();
+    }
+
+    int getMaxLines() {
+        return maxLines;
+    }
+
+    int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /** FFmpegKit global log callback. */
+    void onLog(Log log) {
+        Level level = log.getLevel();
+        int value = level != null ? level.getValue() : Level.AV_LOG_INFO.getValue();
+        // Lower values are more severe; AV_LOG_STDERR is negative and always kept
+        if (value > levelThreshold || log.getMessage() == null) {
+            return;
+        }
+        boolean isError = value >= 0 && value <= Level.AV_LOG_ERROR.getValue();
+        ring(log.getSessionId()).append(log.getMessage(), isError);
+    }
+
+    Ring get(long sessionId) {
+        synchronized (rings) {
+            return rings.get(sessionId);
+        }
+    }
+
+    private Ring ring(long sessionId) {
+        synchronized (rings) {
+            Ring ring = rings.get(sessionId);
+            if (ring == null) {
+                ring = new Ring(maxLines);
+                rings.put(sessionId, ring);
+            }
+            return ring;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package com.klipper.app;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 file server on 127.0.0.1 so the WebView can stream cache
+ * files (inputs, clips, proxies, thumbnails) by URL instead of receiving them
+ * as base64 over the bridge.
+ *
+ * URLs look like http://127.0.0.1:<port>/<token>/<root>/<relative path>. The
+ * token is random per start(), so only whoever was handed the URL (the
+ * WebView) can read anything; paths are confined to the registered roots.
+ * GET and HEAD are supported with single byte ranges, and file bodies go out
+ * through FileChannel.transferTo on the socket channel, which is sendfile on
+ * Android, so nothing is copied through the Java heap. Connections are kept
+ * alive, as the media element issues a run of range requests while seeking.
+ *
+ * Try it with any client, e.g. curl -r 0-99 <url>.
+ */
+final class LoopbackServer {
+
+    private static final String TAG = "LoopbackServer";
+    private static final int WORKERS = 4;
+    private static final int MAX_HEADER_BYTES = 8 * 1024;
+    private static final int IDLE_TIMEOUT_MS = 30000;
+
+    private final Map<String, File> roots = new LinkedHashMap<>();
+    private ServerSocketChannel server;
+    private ExecutorService workers;
+    private volatile String token;
+    private volatile boolean running;
+
+    /** Expose a directory under /<token>/<name>/. */
+    synchronized void addRoot(String name, File dir) {
+        roots.put(name, dir);
+    }
+
+    synchronized boolean isRunning() {
+        return running;
+    }
+
+    synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : random) {
+            hex.append(String.format("%02x", b));
+        }
+        token = hex.toString();
+
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(WORKERS, runnable -> {
+            Thread thread = new Thread(runnable, "klipper-http-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+
+        Thread acceptor = new Thread(this::acceptLoop, "klipper-http-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Log.d(TAG, "Listening on " + baseUrl());
+    }
+
+    synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Close failed: " + e.getMessage());
+        }
+        workers.shutdownNow();
+        Log.d(TAG, "Stopped");
+    }
+
+    synchronized int getPort() {
+        return running ? server.socket().getLocalPort() : -1;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    synchronized String baseUrl() {
+        return running ? "http://127.0.0.1:" + getPort() + "/" + token : null;
+    }
+
+    /** URL for a file under one of the roots, or null if it is outside them (or stopped). */
+    synchronized String urlFor(File file) throws IOException {
+        if (!running) {
+            return null;
+        }
+        String path = file.getCanonicalPath();
+        for (Map.Entry<String, File> root : roots.entrySet()) {
+            String rootPath = root.getValue().getCanonicalPath();
+            if (path.startsWith(rootPath + File.separator)) {
+                StringBuilder url = new StringBuilder(baseUrl()).append('/').append(root.getKey());
+                for (String segment : path.substring(rootPath.length() + 1).split(File.separator)) {
+                    url.append('/').append(URLEncoder.encode(segment, "UTF-8").replace("+", "%20"));
+                }
+                return url.toString();
+            }
+        }
+        return null;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel client = server.accept();
+                workers.execute(() -> serve(client));
+            } catch (IOException e) {
+                if (running) {
+                    Log.w(TAG, "Accept failed: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                // Executor rejected the connection because we're shutting down
+                return;
+            }
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try {
+            client.socket().setSoTimeout(IDLE_TIMEOUT_MS);
+            client.socket().setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(client.socket().getInputStream());
+            while (running && handle(in, client)) {
+                // keep-alive: next request on the same connection
+            }
+        } catch (SocketTimeoutException e) {
+            // Idle keep-alive connection
+        } catch (IOException e) {
+            // Client went away mid-response (normal when a media element seeks)
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Close failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Serve one request; returns whether the connection should stay open. */
+    private boolean handle(InputStream in, SocketChannel client) throws IOException {
+        String head = readHead(in);
+        if (head == null) {
+            return false;
+        }
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length < 3) {
+            sendStatus(client, 400, "Bad Request", false);
+            return false;
+        }
+
+        String method = requestLine[0];
+        String range = null;
+        boolean keepAlive = !"HTTP/1.0".equals(requestLine[2]);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = lines[i].substring(colon + 1).trim();
+            if ("range".equals(name)) {
+                range = value;
+            } else if ("connection".equals(name)) {
+                keepAlive = "keep-alive".equalsIgnoreCase(value)
+                    || (keepAlive && !"close".equalsIgnoreCase(value));
+            }
+        }
+
+        if ("OPTIONS".equals(method)) {
+            // CORS preflight for fetch() with a Range header
+            send(client, "HTTP/1.1 204 No Content\r\n"
+                + "Access-Control-Allow-Origin: *\r\n"
+                + "Access-Control-Allow-Methods: GET, HEAD\r\n"
+                + "Access-Control-Allow-Headers: Range\r\n"
+                + "Access-Control-Max-Age: 86400\r\n"
+                + "Content-Length: 0\r\n"
+                + connectionHeader(keepAlive) + "\r\n");
+            return keepAlive;
+        }
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            sendStatus(client, 405, "Method Not Allowed", keepAlive);
+            return keepAlive;
+        }
+
+        File file = resolve(requestLine[1]);
+        if (file == null || !file.isFile()) {
+            sendStatus(client, 404, "Not Found", keepAlive);
+            return keepAlive;
+        }
+
+        try (RandomAccessFile source = new RandomAccessFile(file, "r")) {
+            FileChannel channel = source.getChannel();
+            long length = channel.size();
+            long start = 0;
+            long end = length - 1;
+            boolean partial = false;
+
+            if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+                long[] bounds = parseRange(range.substring(6), length);
+                if (bounds == null) {
+                    send(client, "HTTP/1.1 416 Range Not Satisfiable\r\n"
+                        + "Content-Range: bytes */" + length + "\r\n"
+                        + "Access-Control-Allow-Origin: *\r\n"
+                        + "Content-Length: 0\r\n"
+                        + connectionHeader(keepAlive) + "\r\n");
+                    return keepAlive;
+                }
+                start = bounds[0];
+                end = bounds[1];
+                partial = true;
+            }
+
+            long count = Math.max(0, end - start + 1);
+            StringBuilder response = new StringBuilder();
+            response.append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+            response.append("Content-Type: ").append(contentType(file.getName())).append("\r\n");
+            response.append("Content-Length: ").append(count).append("\r\n");
+            response.append("Accept-Ranges: bytes\r\n");
+            if (partial) {
+                response.append("Content-Range: bytes ").append(start).append('-').append(end)
+                    .append('/').append(length).append("\r\n");
+            }
+            response.append("Access-Control-Allow-Origin: *\r\n");
+            response.append("Access-Control-Expose-Headers: Content-Range, Content-Length, Accept-Ranges\r\n");
+            response.append("Cache-Control: no-cache\r\n");
+            response.append(connectionHeader(keepAlive)).append("\r\n");
+            send(client, response.toString());
+
+            if ("GET".equals(method)) {
+                long sent = 0;
+                while (sent < count) {
+                    long n = channel.transferTo(start + sent, count - sent, client);
+                    if (n <= 0) {
+                        throw new IOException("Transfer stalled at " + (start + sent));
+                    }
+                    sent += n;
+                }
+            }
+        }
+        return keepAlive;
+    }
+
+    /** "a-b", "a-" or "-n" against a file length; null if unsatisfiable. */
+    static long[] parseRange(String spec, long length) {
+        int dash = spec.indexOf('-');
+        if (dash < 0 || length == 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || end < start) {
+                return null;
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Map /<token>/<root>/<path> to a file inside that root, or null. */
+    private File resolve(String target) throws UnsupportedEncodingException {
+        int query = target.indexOf('?');
+        if (query >= 0) {
+            target = target.substring(0, query);
+        }
+        String[] parts = target.split("/", 4);
+        // parts: "", token, root, path
+        if (parts.length < 4 || !tokenMatches(parts[1])) {
+            return null;
+        }
+        File root;
+        synchronized (this) {
+            root = roots.get(parts[2]);
+        }
+        if (root == null) {
+            return null;
+        }
+        // URLDecoder would turn a literal '+' into a space
+        String relative = URLDecoder.decode(parts[3].replace("+", "%2B"), "UTF-8");
+        try {
+            File file = new File(root, relative).getCanonicalFile();
+            String rootPath = root.getCanonicalPath();
+            return file.getPath().startsWith(rootPath + File.separator) ? file : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private boolean tokenMatches(String candidate) {
+        String current = token;
+        return current != null && MessageDigest.isEqual(
+            current.getBytes(StandardCharsets.US_ASCII), candidate.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** Request line and headers, or null when the client closed the connection first. */
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream(512);
+        int lastFour = 0;
+        int b;
+        while ((b = in.read()) >= 0) {
+            head.write(b);
+            lastFour = (lastFour << 8) | b;
+            if (lastFour == 0x0d0a0d0a) {
+                return new String(head.toByteArray(), 0, head.size() - 4, StandardCharsets.ISO_8859_1);
+            }
+            if (head.size() > MAX_HEADER_BYTES) {
+                throw new IOException("Request header too large");
+            }
+        }
+        return null;
+    }
+
+    private static void sendStatus(SocketChannel client, int code, String reason, boolean keepAlive)
+            throws IOException {
+        send(client, "HTTP/1.1 " + code + " " + reason + "\r\n"
+            + "Access-Control-Allow-Origin: *\r\n"
+            + "Content-Length: 0\r\n"
+            + connectionHeader(keepAlive) + "\r\n");
+    }
+
+    private static String connectionHeader(boolean keepAlive) {
+        return keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n";
+    }
+
+    private static void send(SocketChannel client, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+        while (buffer.hasRemaining()) {
+            client.write(buffer);
+        }
+    }
+
+    private static String contentType(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        if (lower.endsWith(".mp4") || lower.endsWith(".m4v")) {
+            return "video/mp4";
+        }
+        if (lower.endsWith(".mov")) {
+            return "video/quicktime";
+        }
+        if (lower.endsWith(".webm")) {
+            return "video/webm";
+        }
+        if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+            return "image/jpeg";
+        }
+        if (lower.endsWith(".png")) {
+            return "image/png";
+        }
+        if (lower.endsWith(".json")) {
+            return "application/json";
+        }
+        return "application/octet-stream";
+    }
+}
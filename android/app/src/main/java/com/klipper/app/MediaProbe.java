@@ -0,0 +1,311 @@
+package com.klipper.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.arthenica.ffmpegkit.FFprobeKit;
+import com.arthenica.ffmpegkit.MediaInformation;
+import com.arthenica.ffmpegkit.MediaInformationSession;
+import com.arthenica.ffmpegkit.ReturnCode;
+import com.arthenica.ffmpegkit.StreamInformation;
+
+/**
+ * Container and stream metadata for an input: duration, codecs, resolution,
+ * rotation, frame rate and bitrate, from one FFprobeKit media information
+ * call. Stored as a small JSON file named after the input's fingerprint, so
+ * the same video is only probed once.
+ */
+final class MediaProbe {
+
+    private static final String TAG = "MediaProbe";
+    private static final int PROBE_TIMEOUT_MS = 15000;
+
+    static class Stream {
+        int index;
+        String type;
+        String codec;
+        int width;
+        int height;
+        int rotation;
+        double frameRate;
+        String pixelFormat;
+        /** As ffprobe names it ("High", "Main 10"); null if unknown. */
+        String profile;
+        /** ffprobe's level_idc: 41 for H.264 level 4.1, 123 for HEVC level 4.1; 0 if unknown. */
+        int level;
+        long bitrate;
+        int sampleRate;
+        int channels;
+        String channelLayout;
+    }
+
+    final String fingerprint;
+    double duration;
+    String format;
+    long size;
+    long bitrate;
+    final List<Stream> streams = new ArrayList<>();
+
+    private MediaProbe(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /** First video stream, or null for audio-only inputs. */
+    Stream video() {
+        return firstOfType("video");
+    }
+
+    Stream audio() {
+        return firstOfType("audio");
+    }
+
+    private Stream firstOfType(String type) {
+        for (Stream stream : streams) {
+            if (type.equals(stream.type)) {
+                return stream;
+            }
+        }
+        return null;
+    }
+
+    static File cacheFile(File cacheDir, String fingerprint) {
+        return new File(new File(cacheDir, "probe"), fingerprint + ".json");
+    }
+
+    /** Load the cached probe for a fingerprint, or null if there is none (or it's unreadable). */
+    static MediaProbe load(File cacheDir, String fingerprint) {
+        File file = cacheFile(cacheDir, fingerprint);
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            return fromJson(fingerprint, new JSONObject(new String(data, 0, read, StandardCharsets.UTF_8)));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Discarding unreadable probe " + file.getName() + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    static MediaProbe probe(String ffmpegInput, String fingerprint) throws IOException {
+        long startTime = System.nanoTime();
+        MediaInformationSession session = FFprobeKit.getMediaInformation(ffmpegInput, PROBE_TIMEOUT_MS);
+        Metrics.get().record(Metrics.PROBE, System.nanoTime() - startTime);
+        MediaInformation information = session.getMediaInformation();
+        if (!ReturnCode.isSuccess(session.getReturnCode()) || information == null) {
+            throw new IOException("ffprobe failed with return code "
+                + (session.getReturnCode() != null ? session.getReturnCode().getValue() : -1));
+        }
+
+        MediaProbe probe = new MediaProbe(fingerprint);
+        probe.duration = parseDouble(information.getDuration());
+        probe.format = information.getFormat();
+        probe.size = (long) parseDouble(information.getSize());
+        probe.bitrate = (long) parseDouble(information.getBitrate());
+
+        List<StreamInformation> streams = information.getStreams();
+        if (streams != null) {
+            for (StreamInformation info : streams) {
+                Stream stream = new Stream();
+                stream.index = info.getIndex() != null ? info.getIndex().intValue() : probe.streams.size();
+                stream.type = info.getType();
+                stream.codec = info.getCodec();
+                stream.width = info.getWidth() != null ? info.getWidth().intValue() : 0;
+                stream.height = info.getHeight() != null ? info.getHeight().intValue() : 0;
+                stream.rotation = rotationOf(info.getAllProperties());
+                stream.frameRate = parseRate(info.getAverageFrameRate());
+                if (stream.frameRate <= 0) {
+                    stream.frameRate = parseRate(info.getRealFrameRate());
+                }
+                stream.bitrate = (long) parseDouble(info.getBitrate());
+                stream.sampleRate = (int) parseDouble(info.getSampleRate());
+                Long channels = info.getNumberProperty("channels");
+                stream.channels = channels != null ? channels.intValue() : 0;
+                if ("video".equals(stream.type)) {
+                    // FFmpegKit reports pix_fmt as the stream "format"
+                    stream.pixelFormat = info.getFormat();
+                    stream.profile = info.getStringProperty("profile");
+                    Long level = info.getNumberProperty("level");
+                    stream.level = level != null && level > 0 ? level.intValue() : 0;
+                }
+                stream.channelLayout = info.getChannelLayout();
+                probe.streams.add(stream);
+            }
+        }
+
+        Log.d(TAG, "Probed " + fingerprint + ": " + probe.duration + " s, " + probe.streams.size() + " streams");
+        return probe;
+    }
+
+    void save(File cacheDir) throws IOException {
+        File file = cacheFile(cacheDir, fingerprint);
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(toJson().toString().getBytes(StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            temp.delete();
+            throw new IOException(e.getMessage());
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot write " + file.getName());
+        }
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("fingerprint", fingerprint);
+        json.put("duration", duration);
+        json.put("format", format);
+        json.put("size", size);
+        json.put("bitrate", bitrate);
+
+        // Convenience copies of the first video/audio stream for the common case
+        Stream video = video();
+        if (video != null) {
+            json.put("videoCodec", video.codec);
+            json.put("width", video.width);
+            json.put("height", video.height);
+            json.put("rotation", video.rotation);
+            json.put("frameRate", video.frameRate);
+        }
+        Stream audio = audio();
+        if (audio != null) {
+            json.put("audioCodec", audio.codec);
+        }
+
+        JSONArray list = new JSONArray();
+        for (Stream stream : streams) {
+            JSONObject item = new JSONObject();
+            item.put("index", stream.index);
+            item.put("type", stream.type);
+            item.put("codec", stream.codec);
+            if ("video".equals(stream.type)) {
+                item.put("width", stream.width);
+                item.put("height", stream.height);
+                item.put("rotation", stream.rotation);
+                item.put("frameRate", stream.frameRate);
+                item.put("pixelFormat", stream.pixelFormat);
+                item.put("profile", stream.profile);
+                item.put("level", stream.level);
+            } else if ("audio".equals(stream.type)) {
+                item.put("sampleRate", stream.sampleRate);
+                item.put("channels", stream.channels);
+                item.put("channelLayout", stream.channelLayout);
+            }
+            item.put("bitrate", stream.bitrate);
+            list.put(item);
+        }
+        json.put("streams", list);
+        return json;
+    }
+
+    private static MediaProbe fromJson(String fingerprint, JSONObject json) {
+        MediaProbe probe = new MediaProbe(fingerprint);
+        probe.duration = json.optDouble("duration", 0);
+        probe.format = json.optString("format", null);
+        probe.size = json.optLong("size");
+        probe.bitrate = json.optLong("bitrate");
+
+        JSONArray list = json.optJSONArray("streams");
+        for (int i = 0; list != null && i < list.length(); i++) {
+            JSONObject item = list.optJSONObject(i);
+            if (item == null) {
+                continue;
+            }
+            Stream stream = new Stream();
+            stream.index = item.optInt("index", i);
+            stream.type = item.optString("type", null);
+            stream.codec = item.optString("codec", null);
+            stream.width = item.optInt("width");
+            stream.height = item.optInt("height");
+            stream.rotation = item.optInt("rotation");
+            stream.frameRate = item.optDouble("frameRate", 0);
+            stream.bitrate = item.optLong("bitrate");
+            stream.pixelFormat = item.optString("pixelFormat", null);
+            stream.profile = item.optString("profile", null);
+            stream.level = item.optInt("level");
+            stream.sampleRate = item.optInt("sampleRate");
+            stream.channels = item.optInt("channels");
+            stream.channelLayout = item.optString("channelLayout", null);
+            probe.streams.add(stream);
+        }
+        return probe;
+    }
+
+    /**
+     * FFmpeg 6 reports rotation in the display matrix side data; older muxers
+     * (and older FFmpeg) put it in a "rotate" tag.
+     */
+    private static int rotationOf(JSONObject properties) {
+        if (properties == null) {
+            return 0;
+        }
+        JSONArray sideData = properties.optJSONArray("side_data_list");
+        for (int i = 0; sideData != null && i < sideData.length(); i++) {
+            JSONObject item = sideData.optJSONObject(i);
+            if (item != null && item.has("rotation")) {
+                return normalizeRotation(item.optInt("rotation"));
+            }
+        }
+        JSONObject tags = properties.optJSONObject("tags");
+        if (tags != null && tags.has("rotate")) {
+            return normalizeRotation((int) parseDouble(tags.optString("rotate")));
+        }
+        return 0;
+    }
+
+    private static int normalizeRotation(int degrees) {
+        return ((degrees % 360) + 360) % 360;
+    }
+
+    /** "30000/1001" or "25" -> frames per second; 0 if unknown. */
+    private static double parseRate(String rate) {
+        if (rate == null) {
+            return 0;
+        }
+        int slash = rate.indexOf('/');
+        if (slash < 0) {
+            return parseDouble(rate);
+        }
+        double denominator = parseDouble(rate.substring(slash + 1));
+        return denominator > 0 ? parseDouble(rate.substring(0, slash)) / denominator : 0;
+    }
+
+    private static double parseDouble(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
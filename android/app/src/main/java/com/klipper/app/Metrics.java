@@ -0,0 +1,278 @@
+package com.klipper.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.arthenica.ffmpegkit.FFmpegSession;
+import com.arthenica.ffmpegkit.Statistics;
+
+/**
+ * Process-wide timing and throughput per processing stage: input copies,
+ * probes, FFmpeg sessions, publishing and job queue wait.
+ *
+ * Every stage keeps atomic counters (count, total time, bytes, media time)
+ * and a fixed-bucket latency histogram, so recording from the job, pipeline
+ * and service threads never takes a lock. Percentiles are estimated from the
+ * bucket bounds. Optionally every sample is also appended as one JSON line
+ * to cache/metrics.jsonl for offline comparison.
+ */
+final class Metrics {
+
+    private static final String TAG = "Metrics";
+
+    static final String COPY = "copy";
+    static final String PROBE = "probe";
+    static final String ENCODE = "encode";
+    static final String PUBLISH = "publish";
+    static final String QUEUE_WAIT = "queueWait";
+
+    /** Latency bucket upper bounds in ms; one more bucket holds everything slower. */
+    private static final long[] LATENCY_BOUNDS_MS = {
+        1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000, 120000, 300000
+    };
+    /** Realtime speed factor bucket upper bounds, in hundredths (25 = 0.25x). */
+    private static final long[] SPEED_BOUNDS = { 25, 50, 100, 200, 400, 800, 1600, 3200 };
+
+    private static final String EXPORT_NAME = "metrics.jsonl";
+    private static final long MAX_EXPORT_BYTES = 2L * 1024 * 1024;
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    static Metrics get() {
+        return INSTANCE;
+    }
+
+    static final class Histogram {
+        final long[] bounds;
+        final AtomicLongArray counts;
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.counts = new AtomicLongArray(bounds.length + 1);
+        }
+
+        void record(long value) {
+            int bucket = 0;
+            while (bucket < bounds.length && value > bounds[bucket]) {
+                bucket++;
+            }
+            counts.incrementAndGet(bucket);
+        }
+
+        /** Upper bound of the bucket holding the given fraction of samples; -1 when empty or past the last bound. */
+        long percentile(double fraction) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            if (total == 0) {
+                return -1;
+            }
+            long target = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= target) {
+                    return i < bounds.length ? bounds[i] : -1;
+                }
+            }
+            return -1;
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONArray boundList = new JSONArray();
+            JSONArray countList = new JSONArray();
+            for (long bound : bounds) {
+                boundList.put(bound);
+            }
+            for (int i = 0; i < counts.length(); i++) {
+                countList.put(counts.get(i));
+            }
+            JSONObject json = new JSONObject();
+            json.put("bounds", boundList);
+            json.put("counts", countList);
+            return json;
+        }
+    }
+
+    static final class Stage {
+        final String name;
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        /** Seconds of media processed, in ms; only FFmpeg stages report it. */
+        final AtomicLong mediaMs = new AtomicLong();
+        final Histogram latency = new Histogram(LATENCY_BOUNDS_MS);
+        final Histogram speed = new Histogram(SPEED_BOUNDS);
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        void reset() {
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            bytes.set(0);
+            mediaMs.set(0);
+            latency.reset();
+            speed.reset();
+        }
+
+        JSONObject toJson() throws JSONException {
+            long samples = count.get();
+            long nanos = totalNanos.get();
+            JSONObject json = new JSONObject();
+            json.put("count", samples);
+            json.put("totalMs", nanos / 1_000_000);
+            json.put("meanMs", samples > 0 ? nanos / samples / 1_000_000.0 : 0);
+            json.put("maxMs", maxNanos.get() / 1_000_000);
+            json.put("p50Ms", latency.percentile(0.5));
+            json.put("p90Ms", latency.percentile(0.9));
+            json.put("p99Ms", latency.percentile(0.99));
+            json.put("latency", latency.toJson());
+
+            long byteCount = bytes.get();
+            if (byteCount > 0) {
+                json.put("bytes", byteCount);
+                json.put("bytesPerSecond", nanos > 0 ? byteCount * 1e9 / nanos : 0);
+            }
+            long media = mediaMs.get();
+            if (media > 0) {
+                json.put("mediaSeconds", media / 1000.0);
+                // Aggregate realtime factor: media seconds processed per wall-clock second
+                json.put("speedFactor", nanos > 0 ? media * 1e6 / nanos : 0);
+                json.put("speed", speed.toJson());
+            }
+            return json;
+        }
+    }
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+    private final AtomicLong since = new AtomicLong(System.currentTimeMillis());
+    private volatile File exportFile;
+
+    private Metrics() {
+        for (String name : new String[] { COPY, PROBE, ENCODE, PUBLISH, QUEUE_WAIT }) {
+            stages.put(name, new Stage(name));
+        }
+    }
+
+    void record(String stageName, long nanos) {
+        record(stageName, nanos, 0, 0);
+    }
+
+    /**
+     * @param bytes   bytes moved by the stage, or 0
+     * @param mediaMs media time processed (FFmpeg's output time), or 0
+     */
+    void record(String stageName, long nanos, long bytes, long mediaMs) {
+        Stage stage = stages.get(stageName);
+        if (stage == null) {
+            return;
+        }
+        nanos = Math.max(0, nanos);
+        stage.count.incrementAndGet();
+        stage.totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = stage.maxNanos.get()) && !stage.maxNanos.compareAndSet(max, nanos)) {
+            // retry until this sample is stored or a larger one is
+        }
+        stage.latency.record(nanos / 1_000_000);
+        if (bytes > 0) {
+            stage.bytes.addAndGet(bytes);
+        }
+        if (mediaMs > 0) {
+            stage.mediaMs.addAndGet(mediaMs);
+            if (nanos > 0) {
+                stage.speed.record(mediaMs * 100_000_000L / nanos);
+            }
+        }
+
+        File file = exportFile;
+        if (file != null) {
+            export(file, stageName, nanos, bytes, mediaMs);
+        }
+    }
+
+    /** Wall time and media time of a finished FFmpeg session. */
+    void recordSession(FFmpegSession session, long nanos) {
+        Statistics statistics = session != null ? session.getLastReceivedStatistics() : null;
+        record(ENCODE, nanos, 0, statistics != null ? (long) statistics.getTime() : 0);
+    }
+
+    void reset() {
+        for (Stage stage : stages.values()) {
+            stage.reset();
+        }
+        since.set(System.currentTimeMillis());
+    }
+
+    /** Start (cacheDir non-null) or stop appending samples to cache/metrics.jsonl. */
+    void setExport(File cacheDir) {
+        exportFile = cacheDir != null ? new File(cacheDir, EXPORT_NAME) : null;
+    }
+
+    File getExportFile() {
+        return exportFile;
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject stageJson = new JSONObject();
+        for (Stage stage : stages.values()) {
+            stageJson.put(stage.name, stage.toJson());
+        }
+        JSONObject json = new JSONObject();
+        json.put("since", since.get());
+        json.put("stages", stageJson);
+        File file = exportFile;
+        if (file != null) {
+            json.put("exportPath", file.getAbsolutePath());
+        }
+        return json;
+    }
+
+    private static synchronized void export(File file, String stage, long nanos, long bytes, long mediaMs) {
+        try {
+            if (file.length() > MAX_EXPORT_BYTES) {
+                File previous = new File(file.getPath() + ".1");
+                previous.delete();
+                file.renameTo(previous);
+            }
+            JSONObject line = new JSONObject();
+            line.put("t", System.currentTimeMillis());
+            line.put("stage", stage);
+            line.put("ms", nanos / 1_000_000.0);
+            if (bytes > 0) {
+                line.put("bytes", bytes);
+            }
+            if (mediaMs > 0) {
+                line.put("mediaMs", mediaMs);
+            }
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                out.write((line.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Metrics export failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.klipper.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.arthenica.ffmpegkit.FFprobeKit;
+import com.arthenica.ffmpegkit.FFprobeSession;
+import com.arthenica.ffmpegkit.ReturnCode;
+
+/**
+ * Index of clips already rendered, keyed by what went into them: the input's
+ * fingerprint plus the normalised command (range, filters, codec settings).
+ *
+ * When a batch is re-run after only some timestamps changed, parts whose key
+ * is in the manifest reuse the existing file instead of being encoded again.
+ * A reuse is only trusted if the file still has the recorded size and an
+ * ffprobe of its duration matches; anything else drops the entry.
+ */
+final class OutputManifest {
+
+    private static final String TAG = "OutputManifest";
+    private static final int MAX_ENTRIES = 1000;
+    private static final double DURATION_TOLERANCE = 0.1;
+
+    static class Entry {
+        String path;
+        long size;
+        double duration;
+        long createdAt;
+    }
+
+    /** Reads a clip's duration; ffprobe in the app, a fake in unit tests. */
+    interface DurationProbe {
+        double duration(String path) throws IOException;
+    }
+
+    private static OutputManifest instance;
+
+    private final File file;
+    private final DurationProbe probe;
+    // Insertion order doubles as age order for eviction
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    static synchronized OutputManifest get(Context context) {
+        if (instance == null) {
+            instance = new OutputManifest(new File(context.getFilesDir(), "outputs/manifest.json"));
+        }
+        return instance;
+    }
+
+    private OutputManifest(File file) {
+        this(file, OutputManifest::probeDuration);
+    }
+
+    OutputManifest(File file, DurationProbe probe) {
+        this.file = file;
+        this.probe = probe;
+        load();
+    }
+
+    /** Content key for a clip: input fingerprint plus a canonical description of the command. */
+    static String key(String fingerprint, String settings) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((fingerprint + "\n" + settings).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Key of a stream-copied range of an input, as rendered by executeBatch. */
+    static String batchKey(String fingerprint, double start, double end) {
+        return key(fingerprint, "batch-copy-input-seek\n"
+            + CommandPlanner.formatSeconds(start) + "\n" + CommandPlanner.formatSeconds(end));
+    }
+
+    /** {@link #lookup} for each key; a null key or a null result means the part must be rendered. */
+    Entry[] lookupAll(String[] keys) {
+        Entry[] found = new Entry[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            found[i] = keys[i] != null ? lookup(keys[i]) : null;
+        }
+        return found;
+    }
+
+    /** A previously rendered clip for this key that is still intact, or null. */
+    Entry lookup(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+
+        File output = new File(entry.path);
+        boolean valid = output.length() == entry.size;
+        if (valid) {
+            try {
+                valid = Math.abs(probe.duration(entry.path) - entry.duration) <= DURATION_TOLERANCE;
+            } catch (IOException e) {
+                valid = false;
+            }
+        }
+        if (!valid) {
+            Log.d(TAG, "Dropping stale entry for " + entry.path);
+            synchronized (this) {
+                entries.remove(key);
+                save();
+            }
+            return null;
+        }
+        return entry;
+    }
+
+    /** Record a freshly rendered clip; probes its duration for later validity checks. */
+    void put(String key, File output) {
+        Entry entry = new Entry();
+        entry.path = output.getAbsolutePath();
+        entry.size = output.length();
+        entry.createdAt = System.currentTimeMillis();
+        try {
+            entry.duration = probe.duration(entry.path);
+        } catch (IOException e) {
+            Log.w(TAG, "Not recording " + output.getName() + ": " + e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            entries.remove(key);
+            entries.put(key, entry);
+            Iterator<String> oldest = entries.keySet().iterator();
+            while (entries.size() > MAX_ENTRIES && oldest.hasNext()) {
+                oldest.next();
+                oldest.remove();
+            }
+            save();
+        }
+    }
+
+    /** Follow a clip that was moved (e.g. by moveToPublic). */
+    synchronized void relocate(String oldPath, String newPath) {
+        if (oldPath.equals(newPath)) {
+            return;
+        }
+        boolean changed = false;
+        for (Entry entry : entries.values()) {
+            if (entry.path.equals(oldPath)) {
+                entry.path = newPath;
+                changed = true;
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    static double probeDuration(String path) throws IOException {
+        long startTime = System.nanoTime();
+        FFprobeSession session = FFprobeKit.executeWithArguments(new String[] {
+            "-v", "error",
+            "-show_entries", "format=duration",
+            "-of", "csv=p=0",
+            path
+        });
+        Metrics.get().record(Metrics.PROBE, System.nanoTime() - startTime);
+        String output = session.getOutput();
+        if (!ReturnCode.isSuccess(session.getReturnCode()) || output == null) {
+            throw new IOException("Cannot probe " + path);
+        }
+        try {
+            return Double.parseDouble(output.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad duration for " + path + ": " + output.trim());
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            JSONObject json = new JSONObject(new String(data, 0, read, StandardCharsets.UTF_8));
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                JSONObject item = json.optJSONObject(key);
+                if (item == null) {
+                    continue;
+                }
+                Entry entry = new Entry();
+                entry.path = item.optString("path");
+                entry.size = item.optLong("size");
+                entry.duration = item.optDouble("duration");
+                entry.createdAt = item.optLong("createdAt");
+                // Clips the user has deleted since are not worth keeping
+                if (new File(entry.path).exists()) {
+                    entries.put(key, entry);
+                }
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Failed to load manifest: " + e.getMessage());
+        }
+    }
+
+    private void save() {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                JSONObject entry = new JSONObject();
+                entry.put("path", item.getValue().path);
+                entry.put("size", item.getValue().size);
+                entry.put("duration", item.getValue().duration);
+                entry.put("createdAt", item.getValue().createdAt);
+                json.put(item.getKey(), entry);
+            }
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Failed to save manifest: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.klipper.app;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.arthenica.ffmpegkit.FFmpegKit;
+import com.arthenica.ffmpegkit.FFmpegKitConfig;
+import com.arthenica.ffmpegkit.FFmpegSession;
+import com.arthenica.ffmpegkit.ReturnCode;
+
+/**
+ * Foreground service that owns batch processing, so a batch keeps running
+ * when the WebView is backgrounded and survives the process being killed.
+ *
+ * Batches live in the JobJournal; the service drains them one part at a time,
+ * recording every part state before moving on. The processing wake lock is
+ * held only while a batch is being worked on, and the service stops itself
+ * (dropping its notification) once the journal has nothing left to do.
+ * START_STICKY plus the journal means a restarted process picks up at the
+ * first unfinished part.
+ *
+ * From Android 15 the service runs as a mediaProcessing service (dataSync
+ * before), and both are limited to 6 hours a day. When the limit is
+ * reached, onTimeout cancels the part in progress, which the journal still
+ * has as running, and stops. The batch resumes at that part the next time
+ * the app starts the service.
+ */
+public class ProcessingService extends Service {
+
+    private static final String TAG = "ProcessingService";
+    private static final String CHANNEL_ID = "klipper_processing";
+    private static final int NOTIFICATION_ID = 2;
+    static final String ACTION_RUN = "com.klipper.app.action.RUN_BATCHES";
+    static final String ACTION_CANCEL = "com.klipper.app.action.CANCEL_BATCH";
+    static final String EXTRA_BATCH_ID = "batchId";
+
+    interface Listener {
+        void onPartDone(JobJournal.Batch batch, int index);
+        void onBatchDone(JobJournal.Batch batch);
+    }
+
+    private static JobJournal journal;
+    private static volatile Listener listener;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(
+        runnable -> new Thread(runnable, "klipper-service"));
+    private final AtomicInteger queuedDrains = new AtomicInteger();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private PowerManager.WakeLock wakeLock;
+    private NotificationCompat.Builder notificationBuilder;
+    private volatile int lastStartId;
+    private volatile String currentBatchId;
+    private volatile long currentSessionId = -1;
+    private volatile boolean timedOut;
+
+    static synchronized JobJournal getJournal(Context context) {
+        if (journal == null) {
+            journal = new JobJournal(new File(context.getFilesDir(), "jobs/journal.log"));
+        }
+        return journal;
+    }
+
+    static void setListener(Listener newListener) {
+        listener = newListener;
+    }
+
+    /** Start (or nudge) the service to work through every unfinished batch. */
+    static void start(Context context) {
+        Intent intent = new Intent(context, ProcessingService.class).setAction(ACTION_RUN);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    static void startIfPending(Context context) {
+        if (getJournal(context).nextPending() != null) {
+            Log.d(TAG, "Resuming unfinished batches");
+            start(context);
+        }
+    }
+
+    static void cancel(Context context, String batchId) {
+        Intent intent = new Intent(context, ProcessingService.class)
+            .setAction(ACTION_CANCEL)
+            .putExtra(EXTRA_BATCH_ID, batchId);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Must go foreground promptly after startForegroundService, whatever the action
+        goForeground();
+        lastStartId = startId;
+        // Only the app in the foreground can start us again after a timeout
+        timedOut = false;
+
+        if (intent != null && ACTION_CANCEL.equals(intent.getAction())) {
+            cancelBatch(intent.getStringExtra(EXTRA_BATCH_ID));
+        }
+
+        // A null intent is a sticky restart after the process was killed
+        queuedDrains.incrementAndGet();
+        worker.execute(this::drain);
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onTimeout(int startId, int fgsType) {
+        Log.w(TAG, "Foreground service time limit reached, pausing until the app is opened");
+        timedOut = true;
+        long sessionId = currentSessionId;
+        if (sessionId >= 0) {
+            FFmpegKit.cancel(sessionId);
+        }
+        // The system expects the service gone within seconds; drain() winds down on its own
+        stopForegroundCompat();
+        stopSelf();
+    }
+
+    @Override
+    public void onDestroy() {
+        long sessionId = currentSessionId;
+        if (sessionId >= 0) {
+            FFmpegKit.cancel(sessionId);
+        }
+        worker.shutdownNow();
+        releaseWakeLock();
+        super.onDestroy();
+    }
+
+    private void drain() {
+        try {
+            JobJournal.Batch batch;
+            while (!timedOut && (batch = getJournal(this).nextPending()) != null) {
+                acquireWakeLock();
+                runBatch(batch);
+            }
+        } finally {
+            releaseWakeLock();
+            if (queuedDrains.decrementAndGet() == 0) {
+                // Stop on the main thread, where onStartCommand runs, so a start
+                // that arrives meanwhile is either counted or comes after stopSelf
+                mainHandler.post(() -> {
+                    if (queuedDrains.get() == 0) {
+                        stopForegroundCompat();
+                        stopSelf(lastStartId);
+                    }
+                });
+            }
+        }
+    }
+
+    private void runBatch(JobJournal.Batch batch) {
+        JobJournal journal = getJournal(this);
+        currentBatchId = batch.id;
+        File pinned = null;
+        try {
+            JSONObject spec = batch.spec;
+            JSONArray parts = spec.getJSONArray("parts");
+            File destDir = FFmpegPlugin.resolveOutputDir(spec.optString("destFolder", null));
+            if (!destDir.exists()) {
+                destDir.mkdirs();
+            }
+            CommandPlanner.Job template = templateFrom(spec);
+            String input = spec.getString("input");
+            pinned = InputCache.pin(input);
+
+            // Parts rendered before with identical input and settings are reused
+            OutputManifest manifest = OutputManifest.get(this);
+            String fingerprint = null;
+            try {
+                fingerprint = InputFingerprint.of(this, input);
+            } catch (IOException e) {
+                Log.w(TAG, "No fingerprint for batch " + batch.id + ": " + e.getMessage());
+            }
+
+            int index;
+            while (!timedOut && (index = batch.nextPart()) >= 0 && !batch.isFinished()) {
+                JSONObject part = parts.getJSONObject(index);
+                updateNotification(index, parts.length());
+                journal.setPart(batch, index, JobJournal.PartState.RUNNING, null);
+
+                String outputName = part.getString("outputName");
+                File work = new File(getCacheDir(), "batch_" + batch.id + "_" + index + ".mp4");
+                CommandPlanner.Job job = jobFor(template, input, part.getDouble("start"), part.getDouble("end"), work);
+                try {
+                    // Planning rejects a bad part (e.g. end before start) without failing the batch
+                    String key = fingerprint != null
+                        ? OutputManifest.key(fingerprint, CommandPlanner.settingsKey(job, CommandPlanner.plan(job)))
+                        : null;
+                    OutputManifest.Entry existing = key != null ? manifest.lookup(key) : null;
+                    if (existing != null) {
+                        Log.d(TAG, "Batch " + batch.id + " part " + (index + 1) + " reuses " + existing.path);
+                        journal.setPart(batch, index, JobJournal.PartState.DONE, existing.path);
+                    } else {
+                        encode(job);
+                        File dest = new File(destDir, outputName);
+                        FFmpegPlugin.publishFile(this, work, dest);
+                        journal.setPart(batch, index, JobJournal.PartState.DONE, dest.getAbsolutePath());
+                        if (key != null) {
+                            manifest.put(key, dest);
+                        }
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    work.delete();
+                    if (batch.isFinished() || timedOut) {
+                        // Cancelled while this part was encoding, or paused with the part left
+                        // RUNNING so it is encoded again on resume
+                        break;
+                    }
+                    Log.e(TAG, "Batch " + batch.id + " part " + (index + 1) + " failed: " + e.getMessage());
+                    journal.setPart(batch, index, JobJournal.PartState.FAILED, e.getMessage());
+                }
+
+                Listener current = listener;
+                if (current != null) {
+                    current.onPartDone(batch, index);
+                }
+            }
+
+            if (!batch.isFinished() && !timedOut) {
+                boolean allDone = true;
+                for (JobJournal.PartState state : batch.parts) {
+                    allDone &= state == JobJournal.PartState.DONE;
+                }
+                journal.finish(batch, allDone ? JobJournal.COMPLETED : JobJournal.FAILED);
+            }
+        } catch (JSONException | IOException | RuntimeException e) {
+            // Always end the batch here, or drain() would pick it up again forever
+            Log.e(TAG, "Batch " + batch.id + " aborted: " + e.getMessage());
+            try {
+                journal.finish(batch, JobJournal.FAILED);
+            } catch (IOException journalError) {
+                Log.e(TAG, "Failed to record batch end: " + journalError.getMessage());
+            }
+        } finally {
+            InputCache.unpin(pinned);
+            currentBatchId = null;
+        }
+
+        Listener current = listener;
+        if (current != null && batch.isFinished()) {
+            current.onBatchDone(batch);
+        }
+    }
+
+    private static CommandPlanner.Job jobFor(CommandPlanner.Job template, String input, double start, double end,
+                                             File output) {
+        CommandPlanner.Job job = new CommandPlanner.Job();
+        job.input = input;
+        job.output = output.getAbsolutePath();
+        job.start = start;
+        job.end = end;
+        job.crop = template.crop;
+        job.watermark = template.watermark;
+        job.videoCodec = template.videoCodec;
+        job.audioCodec = template.audioCodec;
+        job.preset = template.preset;
+        job.crf = template.crf;
+        job.threads = template.threads;
+        return job;
+    }
+
+    private void encode(CommandPlanner.Job job) throws IOException {
+        // Resolved per session: SAF parameters are single-use
+        job.input = FFmpegPlugin.resolveInput(this, job.input);
+
+        List<String> args = CommandPlanner.plan(job).arguments;
+        FFmpegSession session = FFmpegSession.create(args.toArray(new String[0]));
+        currentSessionId = session.getSessionId();
+        long startTime = System.nanoTime();
+        try {
+            FFmpegKitConfig.ffmpegExecute(session);
+        } finally {
+            currentSessionId = -1;
+        }
+        Metrics.get().recordSession(session, System.nanoTime() - startTime);
+
+        if (ReturnCode.isCancel(session.getReturnCode())) {
+            throw new IOException("Cancelled");
+        }
+        if (!ReturnCode.isSuccess(session.getReturnCode())) {
+            throw new IOException("FFmpeg failed with return code " + session.getReturnCode().getValue());
+        }
+    }
+
+    private void cancelBatch(String batchId) {
+        JobJournal.Batch batch = batchId != null ? getJournal(this).get(batchId) : null;
+        if (batch == null) {
+            return;
+        }
+        try {
+            getJournal(this).finish(batch, JobJournal.CANCELLED);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record cancel: " + e.getMessage());
+        }
+        long sessionId = currentSessionId;
+        if (batchId.equals(currentBatchId) && sessionId >= 0) {
+            FFmpegKit.cancel(sessionId);
+        }
+        Log.d(TAG, "Batch " + batchId + " cancelled");
+    }
+
+    static CommandPlanner.Job templateFrom(JSONObject spec) {
+        CommandPlanner.Job template = new CommandPlanner.Job();
+        template.crop = spec.optBoolean("crop", false);
+        template.videoCodec = spec.optString("videoCodec", "auto");
+        template.audioCodec = spec.optString("audioCodec", "auto");
+        template.preset = spec.optString("preset", "fast");
+        template.crf = spec.optInt("crf", 23);
+        template.threads = spec.optInt("threads", 0);
+
+        JSONObject watermark = spec.optJSONObject("watermark");
+        if (watermark != null) {
+            template.watermark = new CommandPlanner.Watermark();
+            template.watermark.image = watermark.optString("image", null);
+            template.watermark.textFile = watermark.optString("textFile", null);
+            template.watermark.fontFile = watermark.optString("fontFile", null);
+            template.watermark.position = watermark.optString("position", "center");
+            template.watermark.fontSize = watermark.optInt("fontSize", 24);
+        }
+        return template;
+    }
+
+    static JSONObject watermarkToJson(CommandPlanner.Watermark watermark) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("image", watermark.image);
+        json.put("textFile", watermark.textFile);
+        json.put("fontFile", watermark.fontFile);
+        json.put("position", watermark.position);
+        json.put("fontSize", watermark.fontSize);
+        return json;
+    }
+
+    private void goForeground() {
+        Notification notification = notificationBuilder().setProgress(0, 0, true).build();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.VANILLA_ICE_CREAM) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PROCESSING);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+    }
+
+    private void stopForegroundCompat() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            stopForeground(STOP_FOREGROUND_REMOVE);
+        } else {
+            stopForeground(true);
+        }
+    }
+
+    private void updateNotification(int index, int total) {
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager == null) {
+            return;
+        }
+        manager.notify(NOTIFICATION_ID, notificationBuilder()
+            .setContentText("Part " + (index + 1) + "/" + total)
+            .setProgress(total, index, false)
+            .build());
+    }
+
+    private synchronized NotificationCompat.Builder notificationBuilder() {
+        if (notificationBuilder == null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                NotificationChannel channel = new NotificationChannel(
+                    CHANNEL_ID, "Klipper Processing", NotificationManager.IMPORTANCE_LOW);
+                channel.setDescription("Shows progress while processing videos");
+                getSystemService(NotificationManager.class).createNotificationChannel(channel);
+            }
+
+            Intent open = new Intent(this, MainActivity.class).addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+            PendingIntent contentIntent = PendingIntent.getActivity(this, 0, open,
+                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+
+            notificationBuilder = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_menu_save)
+                .setContentTitle("Memproses Video")
+                .setContentText("Menyiapkan...")
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW);
+        }
+        return notificationBuilder;
+    }
+
+    private void acquireWakeLock() {
+        if (wakeLock == null) {
+            PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+            wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "Klipper::ProcessingWakeLock");
+            wakeLock.setReferenceCounted(false);
+        }
+        if (!wakeLock.isHeld()) {
+            // Renewed per batch; the timeout only guards against a leak
+            wakeLock.acquire(6 * 60 * 60 * 1000L);
+            Log.d(TAG, "WakeLock acquired");
+        }
+    }
+
+    private void releaseWakeLock() {
+        if (wakeLock != null && wakeLock.isHeld()) {
+            wakeLock.release();
+            Log.d(TAG, "WakeLock released");
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.klipper.app;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.arthenica.ffmpegkit.Statistics;
+
+/**
+ * Coalesces FFmpegKit statistics callbacks into at most one progress event
+ * per job per interval, and works out percent and ETA natively from the clip
+ * duration and FFmpeg's reported speed.
+ *
+ * FFmpegKit reports statistics for every encoded frame or so; forwarding each
+ * one across the Capacitor bridge (and into a notification) costs far more
+ * than the information is worth. Only the newest sample of an interval is
+ * delivered; a final event marked done is always delivered when the job
+ * finishes, repeating the last sample if nothing newer arrived.
+ */
+final class ProgressAggregator {
+
+    static final long DEFAULT_INTERVAL_MS = 500;
+    /** Finished IDs remembered so late calls for them are dropped; IDs are never reused. */
+    static final int MAX_FINISHED = 256;
+
+    interface Sink {
+        void onProgress(Snapshot snapshot);
+    }
+
+    static class Snapshot {
+        long jobId;
+        double timeMs;
+        long size;
+        double bitrate;
+        double speed;
+        /** 0-100, or -1 when the clip duration is unknown. */
+        double percent = -1;
+        /** Seconds left at the current speed, or -1 when unknown. */
+        double etaSeconds = -1;
+        boolean done;
+    }
+
+    private static class Track {
+        volatile double durationMs;
+        volatile long lastEmitNanos;
+        volatile Statistics pending;
+        volatile Statistics last;
+    }
+
+    private final Map<Long, Track> tracks = new ConcurrentHashMap<>();
+    private final Set<Long> finished = Collections.synchronizedSet(Collections.newSetFromMap(
+        new LinkedHashMap<Long, Boolean>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > MAX_FINISHED;
+            }
+        }));
+    private final Sink sink;
+    private volatile long intervalMs = DEFAULT_INTERVAL_MS;
+
+    ProgressAggregator(Sink sink) {
+        this.sink = sink;
+    }
+
+    void setIntervalMs(long intervalMs) {
+        this.intervalMs = Math.max(0, intervalMs);
+    }
+
+    long getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * Known clip duration for a job; without it only time/speed are reported.
+     * Ignored once the job has finished (a short job can end before its
+     * submitter gets here), so no track is left behind for it.
+     */
+    void setDuration(long jobId, double durationSeconds) {
+        Track track = liveTrack(jobId);
+        if (track != null) {
+            track.durationMs = durationSeconds * 1000;
+        }
+    }
+
+    void onStatistics(Statistics statistics) {
+        onStatistics(statistics.getSessionId(), statistics);
+    }
+
+    /** Statistics of a session run on behalf of a job, tracked under the job's ID. */
+    void onStatistics(long jobId, Statistics statistics) {
+        Track track = liveTrack(jobId);
+        if (track == null) {
+            return;
+        }
+        track.pending = statistics;
+
+        long now = System.nanoTime();
+        if ((now - track.lastEmitNanos) / 1_000_000 < intervalMs) {
+            return;
+        }
+        track.lastEmitNanos = now;
+        emit(jobId, track, false);
+    }
+
+    /** Emit the final event (marked done) with the newest sample and forget the job. */
+    void finish(long jobId) {
+        if (!finished.add(jobId)) {
+            return;
+        }
+        Track track = tracks.remove(jobId);
+        emit(jobId, track != null ? track : new Track(), true);
+    }
+
+    /** The job's track, or null once it has finished. */
+    private Track liveTrack(long jobId) {
+        if (finished.contains(jobId)) {
+            return null;
+        }
+        Track track = track(jobId);
+        // finish() may have run between the check and creating the track
+        if (finished.contains(jobId)) {
+            tracks.remove(jobId);
+            return null;
+        }
+        return track;
+    }
+
+    private Track track(long jobId) {
+        Track track = tracks.get(jobId);
+        if (track == null) {
+            Track created = new Track();
+            track = tracks.putIfAbsent(jobId, created);
+            if (track == null) {
+                track = created;
+            }
+        }
+        return track;
+    }
+
+    private void emit(long jobId, Track track, boolean done) {
+        Statistics statistics = track.pending;
+        if (statistics == null) {
+            if (!done) {
+                return;
+            }
+            statistics = track.last;
+        }
+        track.pending = null;
+        track.last = statistics;
+
+        Snapshot snapshot = new Snapshot();
+        snapshot.jobId = jobId;
+        snapshot.done = done;
+        if (statistics == null) {
+            // Finished before FFmpeg reported anything
+            sink.onProgress(snapshot);
+            return;
+        }
+        snapshot.timeMs = statistics.getTime();
+        snapshot.size = statistics.getSize();
+        snapshot.bitrate = statistics.getBitrate();
+        snapshot.speed = statistics.getSpeed();
+
+        double durationMs = track.durationMs;
+        if (durationMs > 0) {
+            snapshot.percent = Math.min(100, Math.max(0, snapshot.timeMs / durationMs * 100));
+            if (snapshot.speed > 0) {
+                snapshot.etaSeconds = Math.max(0, (durationMs - snapshot.timeMs) / 1000 / snapshot.speed);
+            }
+        }
+
+        sink.onProgress(snapshot);
+    }
+}
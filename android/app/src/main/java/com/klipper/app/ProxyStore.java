@@ -0,0 +1,109 @@
+package com.klipper.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Low-resolution, short-GOP copies of inputs for previewing and scrubbing,
+ * stored as cache/proxies/<fingerprint>.mp4.
+ *
+ * A proxy is only ever a stand-in for the WebView player: it is found through
+ * the original's fingerprint, and renders keep using the original input. With
+ * a keyframe every few frames (or every frame in all-intra mode) and
+ * -tune fastdecode, a seek decodes at most a handful of small frames.
+ */
+final class ProxyStore {
+
+    private static final String TAG = "ProxyStore";
+    static final int DEFAULT_HEIGHT = 360;
+    static final int DEFAULT_GOP = 10;
+    private static final long MAX_BYTES = 1024L * 1024 * 1024;
+
+    private final File dir;
+
+    ProxyStore(File cacheDir) {
+        this.dir = new File(cacheDir, "proxies");
+    }
+
+    File file(String fingerprint) {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return new File(dir, fingerprint + ".mp4");
+    }
+
+    /** Where FFmpeg writes; renamed onto file() only once the encode succeeds. */
+    File tempFile(String fingerprint) {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return new File(dir, fingerprint + ".part");
+    }
+
+    /** The finished proxy for a fingerprint (marked as just used), or null. */
+    File lookup(String fingerprint) {
+        File file = file(fingerprint);
+        if (file.exists() && file.length() > 0) {
+            file.setLastModified(System.currentTimeMillis());
+            return file;
+        }
+        return null;
+    }
+
+    static List<String> arguments(String ffmpegInput, File output, int height, int gop, boolean allIntra) {
+        List<String> args = new ArrayList<>();
+        args.add("-y");
+        args.add("-i");
+        args.add(ffmpegInput);
+        args.addAll(Arrays.asList(
+            "-map", "0:v:0",
+            "-map", "0:a:0?",
+            "-vf", "scale=-2:" + height,
+            "-c:v", "libx264",
+            "-preset", "ultrafast",
+            "-tune", "fastdecode",
+            "-crf", "30",
+            "-maxrate", "800k",
+            "-bufsize", "1600k",
+            "-g", String.valueOf(allIntra ? 1 : Math.max(1, gop)),
+            "-pix_fmt", "yuv420p",
+            "-c:a", "aac",
+            "-b:a", "64k",
+            "-ac", "2",
+            "-movflags", "+faststart",
+            "-f", "mp4",
+            output.getAbsolutePath()));
+        return args;
+    }
+
+    /** Drop least recently used proxies until the directory fits its budget. */
+    synchronized void trim(File keep) {
+        File[] files = dir.listFiles((parent, name) -> name.endsWith(".mp4"));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_BYTES) {
+                break;
+            }
+            if (file.equals(keep)) {
+                continue;
+            }
+            long size = file.length();
+            if (file.delete()) {
+                total -= size;
+                Log.d(TAG, "Evicted proxy " + file.getName());
+            }
+        }
+    }
+}
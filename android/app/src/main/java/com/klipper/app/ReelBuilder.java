@@ -0,0 +1,224 @@
+package com.klipper.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Stitches ranges from one or more inputs into a single output without
+ * re-encoding what doesn't need it.
+ *
+ * Each range is cut with SmartCutter into an MPEG-TS piece (so every piece
+ * carries its own parameter sets in-band), and the pieces are joined with the
+ * concat demuxer and -c copy. Only the partial GOP at the head of a range is
+ * re-encoded, unless a range's streams don't match the first range's (codec,
+ * size, pixel format, audio layout): that range alone is conformed to the
+ * first one with a full re-encode.
+ *
+ * Re-encoded frames use the first range's codec, profile and level, but
+ * their SPS/PPS still differ from the copied ones. The output is therefore
+ * tagged avc3/hev1 so players take the parameter sets from the stream.
+ * A codec with no matching encoder can only be joined where every range
+ * starts on a keyframe and matches the first one; anything else is refused
+ * rather than mixed with H.264.
+ */
+final class ReelBuilder {
+
+    private static final String TAG = "ReelBuilder";
+
+    static class Segment {
+        String input;
+        double start;
+        double end;
+        KeyframeIndex index;
+        MediaProbe probe;
+
+        /** "copy", "smart", "reencode" or "conform", once built. */
+        String mode;
+        double reencodedSeconds;
+        double copiedSeconds;
+    }
+
+    interface Listener {
+        void onSegment(int index, Segment segment);
+    }
+
+    private final Context context;
+    private final File workDir;
+
+    ReelBuilder(Context context, File workDir) {
+        this.context = context;
+        this.workDir = workDir;
+    }
+
+    void build(List<Segment> segments, File output, Listener listener) throws IOException {
+        if (segments.isEmpty()) {
+            throw new IOException("No segments to join");
+        }
+        MediaProbe.Stream referenceVideo = segments.get(0).probe.video();
+        MediaProbe.Stream referenceAudio = segments.get(0).probe.audio();
+        if (referenceVideo == null) {
+            throw new IOException("First segment has no video stream");
+        }
+
+        // Check every segment up front rather than fail after cutting half of them
+        if (SmartCutter.encoderFor(referenceVideo.codec) == null) {
+            for (Segment segment : segments) {
+                if (!matches(segment.probe, referenceVideo, referenceAudio)
+                    || !SmartCutter.startsOnKeyframe(segment.index, segment.start)) {
+                    throw new IOException("Cannot join " + referenceVideo.codec
+                        + " segments that need re-encoding (segment at " + CommandPlanner.formatSeconds(segment.start)
+                        + "): no matching encoder");
+                }
+            }
+        }
+
+        long stamp = System.nanoTime();
+        List<File> pieces = new ArrayList<>();
+        File list = new File(workDir, "reel_list_" + stamp + ".txt");
+        SmartCutter cutter = new SmartCutter(context, workDir);
+
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                File piece = new File(workDir, "reel_" + stamp + "_" + i + ".ts");
+                pieces.add(piece);
+
+                if (matches(segment.probe, referenceVideo, referenceAudio)) {
+                    SmartCutter.Result cut = cutter.cut(segment.input, segment.index, segment.probe,
+                        segment.start, segment.end, piece);
+                    segment.mode = cut.mode;
+                    segment.reencodedSeconds = cut.reencodedSeconds;
+                    segment.copiedSeconds = cut.copiedSeconds;
+                } else {
+                    conform(segment, referenceVideo, referenceAudio, piece);
+                    segment.mode = "conform";
+                    segment.reencodedSeconds = segment.end - segment.start;
+                }
+                if (listener != null) {
+                    listener.onSegment(i, segment);
+                }
+            }
+
+            try (Writer writer = new FileWriter(list)) {
+                for (File piece : pieces) {
+                    writer.write("file '" + piece.getAbsolutePath() + "'\n");
+                }
+            }
+
+            List<String> args = new ArrayList<>();
+            args.add("-y");
+            if (referenceVideo.rotation != 0) {
+                // MPEG-TS has no display matrix; every piece is stored unrotated like the reference
+                args.add("-display_rotation:v:0");
+                args.add(String.valueOf(referenceVideo.rotation));
+            }
+            args.addAll(Arrays.asList(
+                "-f", "concat", "-safe", "0", "-i", list.getAbsolutePath(),
+                "-map", "0:v", "-map", "0:a?",
+                "-c", "copy"
+            ));
+            SmartCutter.addInBandTag(args, referenceVideo.codec);
+            args.addAll(Arrays.asList("-movflags", "+faststart", output.getAbsolutePath()));
+            FFmpegPlugin.runOrThrow(args);
+        } finally {
+            for (File piece : pieces) {
+                piece.delete();
+            }
+            list.delete();
+        }
+    }
+
+    /** Whether a segment's streams can be stream-copied next to the reference ones. */
+    private static boolean matches(MediaProbe probe, MediaProbe.Stream video, MediaProbe.Stream audio) {
+        MediaProbe.Stream otherVideo = probe.video();
+        if (otherVideo == null
+            || !equal(video.codec, otherVideo.codec)
+            || video.width != otherVideo.width
+            || video.height != otherVideo.height
+            || video.rotation != otherVideo.rotation
+            || !compatible(video.pixelFormat, otherVideo.pixelFormat)) {
+            return false;
+        }
+
+        MediaProbe.Stream otherAudio = probe.audio();
+        if (audio == null || otherAudio == null) {
+            return audio == otherAudio;
+        }
+        return equal(audio.codec, otherAudio.codec)
+            && audio.sampleRate == otherAudio.sampleRate
+            && audio.channels == otherAudio.channels;
+    }
+
+    /**
+     * Re-encode a whole range to the reference parameters: scaled and padded
+     * to the reference frame, same encoder and pixel format, and audio
+     * resampled to match (or silence, if this input has none).
+     */
+    private void conform(Segment segment, MediaProbe.Stream video, MediaProbe.Stream audio, File piece)
+            throws IOException {
+        String encoder = SmartCutter.encoderFor(video.codec);
+        if (encoder == null) {
+            throw new IOException("Cannot re-encode to match " + video.codec + " for segment at "
+                + CommandPlanner.formatSeconds(segment.start));
+        }
+        if (audio != null && !"aac".equals(audio.codec)) {
+            throw new IOException("Cannot re-encode to match " + audio.codec + " audio for segment at "
+                + CommandPlanner.formatSeconds(segment.start));
+        }
+        boolean hasAudio = segment.probe.audio() != null;
+
+        List<String> args = new ArrayList<>(Arrays.asList(
+            "-y",
+            // Sizes are as stored; rotation stays metadata, as it does for the copied segments
+            "-noautorotate",
+            "-ss", CommandPlanner.formatSeconds(segment.start), "-i", FFmpegPlugin.resolveInput(context, segment.input),
+            "-t", CommandPlanner.formatSeconds(segment.end - segment.start)
+        ));
+        if (audio != null && !hasAudio) {
+            args.addAll(Arrays.asList(
+                "-f", "lavfi",
+                "-i", String.format(Locale.US, "anullsrc=r=%d:cl=%s",
+                    audio.sampleRate > 0 ? audio.sampleRate : 48000,
+                    audio.channels == 1 ? "mono" : "stereo")));
+        }
+
+        args.addAll(Arrays.asList(
+            "-map", "0:v:0",
+            "-vf", String.format(Locale.US,
+                "scale=%d:%d:force_original_aspect_ratio=decrease,pad=%d:%d:(ow-iw)/2:(oh-ih)/2,setsar=1",
+                video.width, video.height, video.width, video.height)
+        ));
+        SmartCutter.addEncoderArgs(args, encoder, video);
+        if (audio != null) {
+            args.addAll(Arrays.asList(
+                "-map", hasAudio ? "0:a:0" : "1:a:0",
+                "-c:a", "aac",
+                "-ar", String.valueOf(audio.sampleRate > 0 ? audio.sampleRate : 48000),
+                "-ac", String.valueOf(audio.channels > 0 ? audio.channels : 2),
+                "-shortest"));
+        }
+        args.add(piece.getAbsolutePath());
+
+        Log.d(TAG, "Conforming segment " + CommandPlanner.formatSeconds(segment.start)
+            + "-" + CommandPlanner.formatSeconds(segment.end) + " to " + video.codec + " " + video.width + "x" + video.height);
+        FFmpegPlugin.runOrThrow(args);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /** Probes cached before pixel formats were recorded have none; treat unknown as matching. */
+    private static boolean compatible(String a, String b) {
+        return a == null || b == null || a.equals(b);
+    }
+}
@@ -0,0 +1,298 @@
+package com.klipper.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Suggests cut points from one decode-only pass over an input: scene changes
+ * (select on the scene score, at a few frames per second and thumbnail
+ * width) and audio silences (silencedetect), both in a single filtergraph
+ * writing to the null muxer.
+ *
+ * Detections are parsed from the session's log lines as they arrive, so the
+ * pass keeps no frames and no output. Candidates are merged, ranked and
+ * snapped to the nearest keyframe, and the result is stored as JSON under
+ * cache/analysis/ by fingerprint and options.
+ */
+final class SceneAnalyzer {
+
+    private static final String TAG = "SceneAnalyzer";
+    private static final double MERGE_WINDOW = 1.0;
+
+    static class Options {
+        double sceneThreshold = 0.3;
+        double silenceNoiseDb = -35;
+        double minSilence = 0.6;
+        int fps = 4;
+        int width = 160;
+        /** Decode keyframes only: much cheaper, but misses cuts that aren't on a keyframe. */
+        boolean keyframesOnly;
+        int maxCandidates = 50;
+
+        String cacheKey() {
+            return String.format(Locale.US, "s%.2f_n%.0f_d%.2f_f%d_w%d_%s_m%d",
+                sceneThreshold, silenceNoiseDb, minSilence, fps, width, keyframesOnly ? "key" : "all",
+                maxCandidates);
+        }
+    }
+
+    static class Candidate {
+        double time;
+        double keyframe;
+        double score;
+        /** "scene", "silence" or "both". */
+        String kind;
+    }
+
+    private final Options options;
+    private final StringBuilder partial = new StringBuilder();
+    private final List<double[]> scenes = new ArrayList<>();
+    private final List<double[]> silences = new ArrayList<>();
+    private double pendingPts = -1;
+    private double silenceStart = -1;
+    private int lines;
+
+    SceneAnalyzer(Options options) {
+        this.options = options;
+    }
+
+    static List<String> arguments(String ffmpegInput, Options options, boolean hasAudio) {
+        List<String> args = new ArrayList<>();
+        args.add("-hide_banner");
+        // Non-reference frames are never needed to decode the rest, so they can be skipped
+        args.add("-skip_frame");
+        args.add(options.keyframesOnly ? "nokey" : "nonref");
+        args.add("-i");
+        args.add(ffmpegInput);
+
+        String graph = String.format(Locale.US,
+            "[0:v:0]fps=%d,scale=%d:-2,select='gt(scene,%.3f)',metadata=print:key=lavfi.scene_score[v]",
+            Math.max(1, options.fps), Math.max(16, options.width), options.sceneThreshold);
+        if (hasAudio) {
+            graph += String.format(Locale.US, ";[0:a:0]silencedetect=n=%.1fdB:d=%.2f[a]",
+                options.silenceNoiseDb, options.minSilence);
+        }
+        args.add("-filter_complex");
+        args.add(graph);
+        args.add("-map");
+        args.add("[v]");
+        if (hasAudio) {
+            args.add("-map");
+            args.add("[a]");
+        }
+        args.add("-f");
+        args.add("null");
+        args.add("-");
+        return args;
+    }
+
+    /** Session log callback: FFmpeg sends lines in fragments, so whole lines are assembled first. */
+    synchronized void onLog(String message) {
+        int start = 0;
+        int newline;
+        while ((newline = message.indexOf('\n', start)) >= 0) {
+            partial.append(message, start, newline);
+            lines++;
+            parseLine(partial.toString());
+            partial.setLength(0);
+            start = newline + 1;
+        }
+        partial.append(message, start, message.length());
+    }
+
+    synchronized int detections() {
+        return scenes.size() + silences.size();
+    }
+
+    /**
+     * Whole log lines seen. None at all means the log never reached this
+     * analyzer (session dropped from FFmpegKit's history, log level above
+     * info), so no detections says nothing about the input.
+     */
+    synchronized int lines() {
+        return lines;
+    }
+
+    private void parseLine(String line) {
+        // metadata=print: "frame:12 pts:48 pts_time:12.0" then "lavfi.scene_score=0.51"
+        int index = line.indexOf("pts_time:");
+        if (index >= 0) {
+            pendingPts = parseNumber(line, index + 9);
+            return;
+        }
+        index = line.indexOf("lavfi.scene_score=");
+        if (index >= 0 && pendingPts >= 0) {
+            scenes.add(new double[] { pendingPts, parseNumber(line, index + 18) });
+            pendingPts = -1;
+            return;
+        }
+        index = line.indexOf("silence_start:");
+        if (index >= 0) {
+            silenceStart = parseNumber(line, index + 14);
+            return;
+        }
+        index = line.indexOf("silence_end:");
+        if (index >= 0 && silenceStart >= 0) {
+            silences.add(new double[] { silenceStart, parseNumber(line, index + 12) });
+            silenceStart = -1;
+        }
+    }
+
+    private static double parseNumber(String line, int from) {
+        int start = from;
+        while (start < line.length() && line.charAt(start) == ' ') {
+            start++;
+        }
+        int end = start;
+        while (end < line.length() && "0123456789.-eE+".indexOf(line.charAt(end)) >= 0) {
+            end++;
+        }
+        try {
+            return Double.parseDouble(line.substring(start, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Merge scene changes and silence midpoints that fall within a second of
+     * each other, score them (scene score, silence length, a bonus when both
+     * agree), keep the best and return them in time order.
+     */
+    synchronized List<Candidate> rank(KeyframeIndex index) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (double[] scene : scenes) {
+            Candidate candidate = new Candidate();
+            candidate.time = scene[0];
+            candidate.score = Math.min(1.0, scene[1]);
+            candidate.kind = "scene";
+            candidates.add(candidate);
+        }
+        for (double[] silence : silences) {
+            double duration = silence[1] - silence[0];
+            if (duration <= 0) {
+                continue;
+            }
+            double middle = (silence[0] + silence[1]) / 2;
+            double score = Math.min(1.0, duration / 2.0) * 0.8;
+
+            Candidate match = null;
+            for (Candidate candidate : candidates) {
+                if ("scene".equals(candidate.kind)
+                    && candidate.time >= silence[0] - MERGE_WINDOW && candidate.time <= silence[1] + MERGE_WINDOW) {
+                    match = candidate;
+                    break;
+                }
+            }
+            if (match != null) {
+                // A cut inside a pause is the best place to split
+                match.score = Math.min(1.0, match.score + score / 2 + 0.25);
+                match.kind = "both";
+            } else {
+                Candidate candidate = new Candidate();
+                candidate.time = middle;
+                candidate.score = score;
+                candidate.kind = "silence";
+                candidates.add(candidate);
+            }
+        }
+
+        Collections.sort(candidates, (a, b) -> Double.compare(b.score, a.score));
+        List<Candidate> kept = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (kept.size() >= options.maxCandidates) {
+                break;
+            }
+            boolean nearKept = false;
+            for (Candidate other : kept) {
+                if (Math.abs(other.time - candidate.time) < MERGE_WINDOW) {
+                    nearKept = true;
+                    break;
+                }
+            }
+            if (!nearKept) {
+                candidate.keyframe = nearestKeyframe(index, candidate.time);
+                kept.add(candidate);
+            }
+        }
+        Collections.sort(kept, (a, b) -> Double.compare(a.time, b.time));
+        return kept;
+    }
+
+    private static double nearestKeyframe(KeyframeIndex index, double time) {
+        if (index == null || index.size() == 0) {
+            return time;
+        }
+        double before = index.floor(time);
+        double after = index.ceil(time);
+        return time - before <= after - time ? before : after;
+    }
+
+    static File cacheFile(File cacheDir, String fingerprint, Options options) {
+        return new File(new File(cacheDir, "analysis"), fingerprint + "_" + options.cacheKey() + ".json");
+    }
+
+    static JSONArray toJson(List<Candidate> candidates) throws JSONException {
+        JSONArray list = new JSONArray();
+        for (Candidate candidate : candidates) {
+            JSONObject item = new JSONObject();
+            item.put("time", candidate.time);
+            item.put("keyframe", candidate.keyframe);
+            item.put("score", candidate.score);
+            item.put("kind", candidate.kind);
+            list.put(item);
+        }
+        return list;
+    }
+
+    static void save(File file, JSONArray candidates) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(candidates.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot write " + file.getName());
+        }
+    }
+
+    /** Cached candidates, or null if there are none (or they're unreadable). */
+    static JSONArray load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            return new JSONArray(new String(data, 0, read, StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Discarding unreadable analysis " + file.getName() + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+}
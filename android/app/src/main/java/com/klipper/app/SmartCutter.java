@@ -0,0 +1,264 @@
+package com.klipper.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Frame-accurate cuts at close to stream-copy cost.
+ *
+ * Only the partial GOP between the requested start and the next keyframe is
+ * re-encoded; everything from that keyframe on is stream-copied. The two video
+ * pieces are joined with the concat demuxer (MPEG-TS intermediates, so each
+ * piece carries its own parameter sets) and audio is stream-copied for the
+ * whole range in the final mux.
+ *
+ * The re-encoded head is encoded at the source's profile and level, but its
+ * SPS/PPS still differ from the copied frames', and an MP4 sample entry holds
+ * only one set. MP4 outputs are therefore tagged avc3/hev1, which tells the
+ * decoder to take the parameter sets in-band (from the stream) instead.
+ *
+ * Keyframe times come from KeyframeIndex, relative to the container's
+ * start_time like -ss. Every piece keeps the input's coded size; rotation
+ * is restored as display metadata on the final mux, since MPEG-TS has none.
+ */
+class SmartCutter {
+
+    private static final String TAG = "SmartCutter";
+
+    /** A start closer than this to a keyframe is treated as on the keyframe. */
+    private static final double KEYFRAME_TOLERANCE = 0.05;
+    /** Microseconds: millisecond rounding can move a seek across a frame boundary. */
+    private static final int SEEK_DECIMALS = 6;
+
+    static class Result {
+        String mode;
+        double keyframe;
+        double reencodedSeconds;
+        double copiedSeconds;
+    }
+
+    private final Context context;
+    private final File workDir;
+
+    SmartCutter(Context context, File workDir) {
+        this.context = context;
+        this.workDir = workDir;
+    }
+
+    /**
+     * Whether a cut at start is a plain stream copy. Anything else re-encodes
+     * at least the head, which needs an encoder for the source codec to be
+     * joined with copied pieces (see encoderFor).
+     */
+    static boolean startsOnKeyframe(KeyframeIndex index, double start) {
+        // Not ceil(): past the last keyframe it returns start itself
+        return index.floorIndex(start + KEYFRAME_TOLERANCE) >= 0
+            && index.floor(start + KEYFRAME_TOLERANCE) >= start;
+    }
+
+    Result cut(String input, KeyframeIndex index, MediaProbe probe, double start, double end, File output)
+            throws IOException {
+        MediaProbe.Stream video = probe.video();
+        if (video == null) {
+            throw new IOException("Input has no video stream");
+        }
+
+        Result result = new Result();
+        double keyframe = index.ceil(start);
+        result.keyframe = keyframe;
+
+        if (startsOnKeyframe(index, start)) {
+            // Start is already on a keyframe: a plain stream copy is exact
+            result.mode = "copy";
+            result.copiedSeconds = end - keyframe;
+            copyRange(input, keyframe, end, video, output, true);
+            return result;
+        }
+
+        String encoder = encoderFor(video.codec);
+
+        if (encoder == null || keyframe >= end) {
+            // No matching encoder (the whole clip becomes H.264; callers joining pieces
+            // must not get here, see startsOnKeyframe), or it fits inside one partial GOP
+            result.mode = "reencode";
+            result.reencodedSeconds = end - start;
+            reencodeRange(input, start, end, output, encoder != null ? encoder : "libx264", video, true);
+            return result;
+        }
+
+        long stamp = System.nanoTime();
+        File head = new File(workDir, "smartcut_head_" + stamp + ".ts");
+        File tail = new File(workDir, "smartcut_tail_" + stamp + ".ts");
+        File list = new File(workDir, "smartcut_list_" + stamp + ".txt");
+
+        try {
+            reencodeRange(input, start, keyframe, head, encoder, video, false);
+            copyRange(input, keyframe, end, video, tail, false);
+
+            try (Writer writer = new FileWriter(list)) {
+                writer.write("file '" + head.getAbsolutePath() + "'\n");
+                writer.write("file '" + tail.getAbsolutePath() + "'\n");
+            }
+
+            List<String> args = new ArrayList<>();
+            args.add("-y");
+            if (video.rotation != 0) {
+                // Both pieces are stored unrotated and MPEG-TS dropped the display matrix
+                args.add("-display_rotation:v:0");
+                args.add(String.valueOf(video.rotation));
+            }
+            args.addAll(Arrays.asList(
+                "-f", "concat", "-safe", "0", "-i", list.getAbsolutePath(),
+                "-ss", CommandPlanner.formatSeconds(start, SEEK_DECIMALS), "-i", FFmpegPlugin.resolveInput(context, input),
+                "-t", CommandPlanner.formatSeconds(end - start, SEEK_DECIMALS),
+                "-map", "0:v", "-map", "1:a?",
+                "-c", "copy"
+            ));
+            // Callers may ask for MPEG-TS (e.g. ReelBuilder pieces), which has no moov to move
+            // and carries the parameter sets in-band anyway
+            if (output.getName().endsWith(".mp4")) {
+                addInBandTag(args, video.codec);
+                args.add("-movflags");
+                args.add("+faststart");
+            }
+            args.add(output.getAbsolutePath());
+            FFmpegPlugin.runOrThrow(args);
+        } finally {
+            head.delete();
+            tail.delete();
+            list.delete();
+        }
+
+        result.mode = "smart";
+        result.reencodedSeconds = keyframe - start;
+        result.copiedSeconds = end - keyframe;
+        Log.d(TAG, String.format(Locale.US, "Smart cut %.3f-%.3f: re-encoded %.3fs, copied %.3fs",
+            start, end, result.reencodedSeconds, result.copiedSeconds));
+        return result;
+    }
+
+    /**
+     * Stream-copy from a keyframe to end. The seek lands half a frame past the
+     * keyframe: an input seek goes back to the keyframe at or before the
+     * target, so a target rounded to just below it would pick up the previous
+     * GOP. The copied packets before the target are kept (and shifted to 0), so
+     * the piece still starts on the keyframe.
+     */
+    private void copyRange(String input, double keyframe, double end, MediaProbe.Stream video, File output,
+                           boolean withAudio) throws IOException {
+        double seek = keyframe + (video.frameRate > 0 ? 0.5 / video.frameRate : 0.01);
+        List<String> args = new ArrayList<>(Arrays.asList(
+            "-y",
+            "-ss", CommandPlanner.formatSeconds(seek, SEEK_DECIMALS), "-i", FFmpegPlugin.resolveInput(context, input),
+            "-t", CommandPlanner.formatSeconds(end - seek, SEEK_DECIMALS),
+            "-map", "0:v:0"
+        ));
+        if (withAudio) {
+            args.add("-map");
+            args.add("0:a?");
+        }
+        args.addAll(Arrays.asList("-c", "copy", "-avoid_negative_ts", "make_zero", output.getAbsolutePath()));
+        FFmpegPlugin.runOrThrow(args);
+    }
+
+    private void reencodeRange(String input, double start, double end, File output,
+                               String encoder, MediaProbe.Stream video, boolean withAudio) throws IOException {
+        List<String> args = new ArrayList<>(Arrays.asList(
+            "-y",
+            // Keep the coded size (and the display matrix, where the container has one) so
+            // the re-encoded frames line up with stream-copied ones from the same input
+            "-noautorotate",
+            "-ss", CommandPlanner.formatSeconds(start, SEEK_DECIMALS), "-i", FFmpegPlugin.resolveInput(context, input),
+            "-t", CommandPlanner.formatSeconds(end - start, SEEK_DECIMALS),
+            "-map", "0:v:0"
+        ));
+        addEncoderArgs(args, encoder, video);
+        if (withAudio) {
+            args.addAll(Arrays.asList("-map", "0:a?", "-c:a", "aac"));
+        }
+        args.add(output.getAbsolutePath());
+        FFmpegPlugin.runOrThrow(args);
+    }
+
+    /** Encoder that produces a bitstream the stream-copied remainder can be concatenated with. */
+    static String encoderFor(String codec) {
+        if ("h264".equals(codec)) {
+            return "libx264";
+        }
+        if ("hevc".equals(codec)) {
+            return "libx265";
+        }
+        return null;
+    }
+
+    /**
+     * Encoder settings for frames that will sit next to stream-copied ones
+     * from the reference stream: same pixel format and, when encoding to the
+     * reference's own codec, the same profile and level, so a decoder set up
+     * for the copied frames can take the re-encoded ones too.
+     */
+    static void addEncoderArgs(List<String> args, String encoder, MediaProbe.Stream reference) {
+        args.addAll(Arrays.asList("-c:v", encoder, "-preset", "veryfast", "-crf", "18"));
+        if (reference.pixelFormat != null && !reference.pixelFormat.isEmpty()) {
+            args.add("-pix_fmt");
+            args.add(reference.pixelFormat);
+        }
+        if (!encoder.equals(encoderFor(reference.codec))) {
+            return;
+        }
+
+        String profile = reference.profile != null
+            ? reference.profile.toLowerCase(Locale.US).replace(" ", "") : "";
+        if ("libx264".equals(encoder)) {
+            if (profile.equals("baseline") || profile.equals("constrainedbaseline")) {
+                profile = "baseline";
+            } else if (profile.startsWith("high4:2:2")) {
+                profile = "high422";
+            } else if (profile.startsWith("high4:4:4")) {
+                profile = "high444";
+            }
+            if (Arrays.asList("baseline", "main", "high", "high10", "high422", "high444").contains(profile)) {
+                args.add("-profile:v");
+                args.add(profile);
+            }
+            if (reference.level > 0) {
+                args.add("-level:v");
+                args.add(reference.level / 10 + "." + reference.level % 10);
+            }
+        } else {
+            if (Arrays.asList("main", "main10", "mainstillpicture").contains(profile)) {
+                args.add("-profile:v");
+                args.add(profile);
+            }
+            if (reference.level > 0) {
+                // HEVC level_idc is 30x the level; x265 takes 41 for 4.1
+                args.add("-x265-params");
+                args.add("level-idc=" + reference.level / 3);
+            }
+        }
+    }
+
+    /**
+     * Tag an MP4 video stream whose frames come from more than one encoder as
+     * avc3/hev1: its SPS/PPS change mid-stream, which the avc1/hvc1 sample
+     * entry (one out-of-band set) can't describe.
+     */
+    static void addInBandTag(List<String> args, String codec) {
+        if ("h264".equals(codec)) {
+            args.add("-tag:v");
+            args.add("avc3");
+        } else if ("hevc".equals(codec)) {
+            args.add("-tag:v");
+            args.add("hev1");
+        }
+    }
+}
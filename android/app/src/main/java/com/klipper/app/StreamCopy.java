@@ -0,0 +1,100 @@
+package com.klipper.app;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The byte-moving loops behind copyToCache, moveToPublic and the bundled font
+ * copy. Kept free of Android types so the benchmark module can run them
+ * as-is on a plain JVM.
+ */
+final class StreamCopy {
+
+    static final long TRANSFER_CHUNK = 8L * 1024 * 1024;
+    static final int BUFFER_SIZE = 64 * 1024;
+    /** Streamed copies read at most this much at a time, whatever the chunk size. */
+    private static final long MAX_STREAM_BUFFER = 1024 * 1024;
+
+    private StreamCopy() {
+    }
+
+    static long transferFully(InputStream input, FileChannel target) throws IOException {
+        return transferFully(input, target, TRANSFER_CHUNK);
+    }
+
+    /**
+     * Copy everything from input into target, starting at target's position.
+     * A regular-file input goes channel to channel (sendfile where the kernel
+     * supports it); anything else, including the pipes behind SAF's
+     * AutoCloseInputStream (also a FileInputStream), is streamed through
+     * a buffer of up to chunk bytes.
+     */
+    static long transferFully(InputStream input, FileChannel target, long chunk) throws IOException {
+        long start = target.position();
+
+        if (input instanceof FileInputStream) {
+            FileChannel source = ((FileInputStream) input).getChannel();
+            long offset = seekablePosition(source);
+            if (offset >= 0 && source.size() > offset) {
+                long size = source.size();
+                long position = offset;
+                try {
+                    while (position < size) {
+                        long moved = source.transferTo(position, Math.min(chunk, size - position), target);
+                        if (moved <= 0) {
+                            break;
+                        }
+                        position += moved;
+                    }
+                    return position - offset;
+                } catch (IOException e) {
+                    // transferTo never moves the source position, so dropping what
+                    // reached the target lets the streaming copy start over cleanly
+                    target.truncate(start);
+                    target.position(start);
+                }
+            }
+        }
+
+        // Not transferFrom(Channels.newChannel(input)): for a FileInputStream that
+        // is the pipe's own FileChannel, which transferFrom tries to seek
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(chunk, MAX_STREAM_BUFFER)));
+        byte[] array = buffer.array();
+        long total = 0;
+        int read;
+        while ((read = input.read(array)) != -1) {
+            buffer.clear();
+            buffer.limit(read);
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /** The channel's position if it is a seekable regular file, -1 for pipes and sockets. */
+    private static long seekablePosition(FileChannel channel) {
+        try {
+            return channel.position();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /** Plain buffered copy, for streams with no channel behind them (e.g. assets). */
+    static long copy(InputStream input, OutputStream output, int bufferSize) throws IOException {
+        byte[] buffer = new byte[Math.max(1, bufferSize)];
+        long total = 0;
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,200 @@
+package com.klipper.app;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Small JPEG frames of an input at given times, for the parts list and the
+ * timestamp editor.
+ *
+ * Missing frames are extracted in batched FFmpeg passes: every timestamp is
+ * its own input, seeked on the input side and decoded with -skip_frame nokey,
+ * so each costs one seek and one keyframe decode however long the source is.
+ * When the input's keyframe index is already known, times are snapped to
+ * their keyframe first, so nearby timestamps share one thumbnail.
+ *
+ * Two tiers: JPEGs on disk under cache/thumbs/<fingerprint>/ (trimmed to a
+ * byte budget, oldest first) and a bounded in-memory LRU of their bytes for
+ * callers that want the data inline.
+ */
+final class ThumbnailCache {
+
+    private static final String TAG = "ThumbnailCache";
+    private static final int MAX_INPUTS_PER_PASS = 12;
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+    static final int DEFAULT_MEMORY_BYTES = 8 * 1024 * 1024;
+
+    static class Thumb {
+        double time;
+        double frameTime;
+        File file;
+        /** "memory", "disk" or "extracted"; null when the frame couldn't be produced. */
+        String source;
+        byte[] data;
+    }
+
+    private final File dir;
+    private final LruCache<String, byte[]> memory;
+
+    ThumbnailCache(File cacheDir, int memoryBytes) {
+        this.dir = new File(cacheDir, "thumbs");
+        this.memory = new LruCache<String, byte[]>(Math.max(1, memoryBytes)) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length;
+            }
+        };
+    }
+
+    /**
+     * @param index  keyframe index to snap times with, or null to use the times as given
+     * @param inline also return each thumbnail's bytes (served from memory when possible)
+     */
+    List<Thumb> get(Context context, String input, String fingerprint, double[] times, int width,
+                    KeyframeIndex index, boolean inline) throws IOException {
+        File inputDir = new File(dir, fingerprint);
+        if (!inputDir.exists()) {
+            inputDir.mkdirs();
+        }
+
+        List<Thumb> thumbs = new ArrayList<>(times.length);
+        List<Thumb> missing = new ArrayList<>();
+        for (double time : times) {
+            Thumb thumb = new Thumb();
+            thumb.time = time;
+            thumb.frameTime = index != null && index.size() > 0 ? index.floor(time) : time;
+            thumb.file = new File(inputDir, width + "_" + Math.round(thumb.frameTime * 1000) + ".jpg");
+            thumbs.add(thumb);
+
+            byte[] data = inline ? memory.get(thumb.file.getPath()) : null;
+            if (data != null) {
+                thumb.data = data;
+                thumb.source = "memory";
+            } else if (thumb.file.exists() && thumb.file.length() > 0) {
+                thumb.source = "disk";
+                thumb.file.setLastModified(System.currentTimeMillis());
+            } else if (!containsFile(missing, thumb.file)) {
+                missing.add(thumb);
+            }
+        }
+
+        for (int i = 0; i < missing.size(); i += MAX_INPUTS_PER_PASS) {
+            List<Thumb> pass = missing.subList(i, Math.min(missing.size(), i + MAX_INPUTS_PER_PASS));
+            try {
+                extract(context, input, pass, width);
+            } catch (IOException e) {
+                // Usually a time past the end; the others in the pass may still have been written
+                Log.w(TAG, "Thumbnail pass failed: " + e.getMessage());
+            }
+        }
+
+        for (Thumb thumb : thumbs) {
+            if (thumb.source == null && thumb.file.exists() && thumb.file.length() > 0) {
+                thumb.source = "extracted";
+            }
+            if (inline && thumb.source != null && thumb.data == null) {
+                thumb.data = readFully(thumb.file);
+                memory.put(thumb.file.getPath(), thumb.data);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            trim();
+        }
+        return thumbs;
+    }
+
+    void clearMemory() {
+        memory.evictAll();
+    }
+
+    private void extract(Context context, String input, List<Thumb> pass, int width) throws IOException {
+        List<String> args = new ArrayList<>();
+        args.add("-y");
+        for (Thumb thumb : pass) {
+            args.addAll(Arrays.asList("-skip_frame", "nokey", "-noaccurate_seek"));
+            args.add("-ss");
+            args.add(CommandPlanner.formatSeconds(thumb.frameTime));
+            // Each input needs its own SAF parameter
+            args.add("-i");
+            args.add(FFmpegPlugin.resolveInput(context, input));
+        }
+        for (int i = 0; i < pass.size(); i++) {
+            args.addAll(Arrays.asList(
+                "-map", i + ":v:0",
+                "-frames:v", "1",
+                "-vf", "scale=" + width + ":-2",
+                "-q:v", "5",
+                pass.get(i).file.getAbsolutePath()));
+        }
+        FFmpegPlugin.runOrThrow(args);
+    }
+
+    private static boolean containsFile(List<Thumb> thumbs, File file) {
+        for (Thumb thumb : thumbs) {
+            if (thumb.file.equals(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    throw new IOException("Short read on " + file.getName());
+                }
+                read += n;
+            }
+        }
+        return data;
+    }
+
+    /** Keep the disk tier under its budget, least recently used first. */
+    private synchronized void trim() {
+        List<File> files = new ArrayList<>();
+        File[] inputs = dir.listFiles();
+        if (inputs == null) {
+            return;
+        }
+        long total = 0;
+        for (File inputDir : inputs) {
+            File[] thumbs = inputDir.listFiles();
+            if (thumbs == null) {
+                continue;
+            }
+            for (File thumb : thumbs) {
+                files.add(thumb);
+                total += thumb.length();
+            }
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+
+        File[] sorted = files.toArray(new File[0]);
+        Arrays.sort(sorted, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : sorted) {
+            if (total <= MAX_DISK_BYTES) {
+                break;
+            }
+            long size = file.length();
+            if (file.delete()) {
+                total -= size;
+                memory.remove(file.getPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.klipper.app;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class CommandPlannerTest {
+
+    private static CommandPlanner.Job job(double start, double end) {
+        CommandPlanner.Job job = new CommandPlanner.Job();
+        job.input = "/in.mp4";
+        job.output = "/out.mp4";
+        job.start = start;
+        job.end = end;
+        return job;
+    }
+
+    private static CommandPlanner.Variant variant(String output) {
+        CommandPlanner.Variant variant = new CommandPlanner.Variant();
+        variant.output = output;
+        return variant;
+    }
+
+    /** The value following flag, searching from the given index. */
+    private static String after(List<String> args, String flag, int from) {
+        int i = args.subList(from, args.size()).indexOf(flag);
+        assertTrue("missing " + flag, i >= 0);
+        return args.get(from + i + 1);
+    }
+
+    @Test
+    public void plan_unfilteredRangeIsStreamCopiedWithInputSeek() {
+        CommandPlanner.Plan plan = CommandPlanner.plan(job(10, 25.5));
+        List<String> args = plan.arguments;
+
+        assertTrue(plan.copyVideo);
+        assertTrue(plan.copyAudio);
+        assertNull(plan.videoFilter);
+        // -ss before -i seeks on the input side
+        assertTrue(args.indexOf("-ss") < args.indexOf("-i"));
+        assertEquals("10.000", after(args, "-ss", 0));
+        assertEquals("15.500", after(args, "-t", 0));
+        assertEquals("copy", after(args, "-c:v", 0));
+        assertEquals("copy", after(args, "-c:a", 0));
+        assertEquals("make_zero", after(args, "-avoid_negative_ts", 0));
+        assertEquals("/out.mp4", args.get(args.size() - 1));
+    }
+
+    @Test
+    public void plan_cropReencodesVideoAndCopiesAudio() {
+        CommandPlanner.Job job = job(0, 5);
+        job.crop = true;
+        job.preset = "veryfast";
+        job.crf = 20;
+        CommandPlanner.Plan plan = CommandPlanner.plan(job);
+        List<String> args = plan.arguments;
+
+        assertFalse(plan.copyVideo);
+        assertTrue(plan.copyAudio);
+        assertFalse("no seek for a range starting at 0", args.contains("-ss"));
+        assertEquals(CommandPlanner.CROP_9_16, after(args, "-vf", 0));
+        assertEquals("libx264", after(args, "-c:v", 0));
+        assertEquals("veryfast", after(args, "-preset", 0));
+        assertEquals("20", after(args, "-crf", 0));
+        assertEquals("copy", after(args, "-c:a", 0));
+    }
+
+    @Test
+    public void plan_reencodesAutoVideoWhenStartIsOffKeyframe() {
+        CommandPlanner.Job job = job(3.2, 8);
+        job.startOnKeyframe = false;
+        CommandPlanner.Plan plan = CommandPlanner.plan(job);
+
+        assertFalse(plan.copyVideo);
+        assertTrue(plan.copyAudio);
+        assertNull(plan.videoFilter);
+        assertFalse(plan.arguments.contains("-vf"));
+        assertEquals("libx264", after(plan.arguments, "-c:v", 0));
+    }
+
+    @Test
+    public void plan_keepsExplicitCopyWhenStartIsOffKeyframe() {
+        CommandPlanner.Job job = job(3.2, 8);
+        job.startOnKeyframe = false;
+        job.videoCodec = "copy";
+        CommandPlanner.Plan plan = CommandPlanner.plan(job);
+
+        assertTrue(plan.copyVideo);
+        assertEquals("copy", after(plan.arguments, "-c:v", 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void plan_rejectsEndBeforeStart() {
+        CommandPlanner.plan(job(10, 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void plan_rejectsCopyWithFilter() {
+        CommandPlanner.Job job = job(0, 5);
+        job.crop = true;
+        job.videoCodec = "copy";
+        CommandPlanner.plan(job);
+    }
+
+    @Test
+    public void formatSeconds_isLocaleFreeAndClampsNegatives() {
+        assertEquals("12.346", CommandPlanner.formatSeconds(12.3456));
+        assertEquals("0.000", CommandPlanner.formatSeconds(-1));
+        assertEquals("1.000001", CommandPlanner.formatSeconds(1.000001, 6));
+    }
+
+    @Test
+    public void settingsKey_ignoresPaths() {
+        CommandPlanner.Job a = job(1, 2);
+        CommandPlanner.Job b = job(1, 2);
+        b.input = "/other.mp4";
+        b.output = "/other_out.mp4";
+        assertEquals(CommandPlanner.settingsKey(a, CommandPlanner.plan(a)),
+            CommandPlanner.settingsKey(b, CommandPlanner.plan(b)));
+    }
+
+    @Test
+    public void planFanOut_decodesOnceForEveryFilteredVariant() {
+        CommandPlanner.FanOutJob job = new CommandPlanner.FanOutJob();
+        job.input = "/in.mp4";
+        job.start = 3;
+        job.end = 8;
+        job.variants.add(variant("/full.mp4"));
+        CommandPlanner.Variant vertical = variant("/vertical.mp4");
+        vertical.crop = true;
+        job.variants.add(vertical);
+        CommandPlanner.Variant preview = variant("/preview.mp4");
+        preview.height = 360;
+        job.variants.add(preview);
+
+        CommandPlanner.FanOutPlan plan = CommandPlanner.planFanOut(job);
+        List<String> args = plan.arguments;
+
+        assertArrayEquals(new boolean[] { true, false, false }, plan.copyVideo);
+        assertEquals(2, plan.decodedVariants);
+        assertEquals("[0:v:0]split=2[s1][s2];[s1]" + CommandPlanner.CROP_9_16 + "[v1];[s2]scale=-2:360[v2]",
+            plan.filterGraph);
+        // The range is on the input, so every output shares it
+        int input = args.indexOf("-i");
+        assertTrue(args.indexOf("-ss") < input);
+        assertTrue(args.indexOf("-t") < input);
+        assertEquals("5.000", after(args, "-t", 0));
+
+        int full = args.indexOf("/full.mp4");
+        assertEquals("0:v:0", after(args, "-map", input));
+        assertEquals("copy", after(args, "-c:v", input));
+        assertEquals("[v1]", after(args, "-map", full));
+        assertEquals("[v2]", after(args, "-map", args.indexOf("/vertical.mp4")));
+    }
+
+    @Test
+    public void planFanOut_roundsOddHeightDownToEven() {
+        CommandPlanner.Variant variant = variant("/out.mp4");
+        variant.height = 481;
+        assertEquals("scale=-2:480", CommandPlanner.buildVariantFilter(variant));
+    }
+
+    @Test
+    public void planFanOut_reencodesAutoVariantsWhenStartIsOffKeyframe() {
+        CommandPlanner.FanOutJob job = new CommandPlanner.FanOutJob();
+        job.input = "/in.mp4";
+        job.start = 3.2;
+        job.end = 8;
+        job.startOnKeyframe = false;
+        job.variants.add(variant("/auto.mp4"));
+        CommandPlanner.Variant copy = variant("/copy.mp4");
+        copy.videoCodec = "copy";
+        job.variants.add(copy);
+
+        CommandPlanner.FanOutPlan plan = CommandPlanner.planFanOut(job);
+
+        assertArrayEquals(new boolean[] { false, true }, plan.copyVideo);
+        assertEquals(1, plan.decodedVariants);
+        assertEquals("[0:v:0]null[v0]", plan.filterGraph);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void planFanOut_rejectsVariantWithoutOutput() {
+        CommandPlanner.FanOutJob job = new CommandPlanner.FanOutJob();
+        job.input = "/in.mp4";
+        job.variants.add(variant(null));
+        CommandPlanner.planFanOut(job);
+    }
+}
@@ -0,0 +1,45 @@
+package com.klipper.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LoopbackServerTest {
+
+    @Test
+    public void parseRange_closedRange() {
+        assertArrayEquals(new long[] { 0, 99 }, LoopbackServer.parseRange("0-99", 1000));
+    }
+
+    @Test
+    public void parseRange_openEndedRunsToLastByte() {
+        assertArrayEquals(new long[] { 500, 999 }, LoopbackServer.parseRange("500-", 1000));
+    }
+
+    @Test
+    public void parseRange_suffixIsTheLastBytes() {
+        assertArrayEquals(new long[] { 900, 999 }, LoopbackServer.parseRange("-100", 1000));
+        // A suffix longer than the file is the whole file
+        assertArrayEquals(new long[] { 0, 999 }, LoopbackServer.parseRange("-5000", 1000));
+    }
+
+    @Test
+    public void parseRange_endIsClampedToLength() {
+        assertArrayEquals(new long[] { 900, 999 }, LoopbackServer.parseRange("900-2000", 1000));
+    }
+
+    @Test
+    public void parseRange_unsatisfiable() {
+        assertNull(LoopbackServer.parseRange("1000-", 1000));
+        assertNull(LoopbackServer.parseRange("5-2", 1000));
+        assertNull(LoopbackServer.parseRange("-0", 1000));
+        assertNull(LoopbackServer.parseRange("0-10", 0));
+    }
+
+    @Test
+    public void parseRange_malformed() {
+        assertNull(LoopbackServer.parseRange("abc", 1000));
+        assertNull(LoopbackServer.parseRange("a-b", 1000));
+        assertNull(LoopbackServer.parseRange("-", 1000));
+    }
+}
@@ -0,0 +1,173 @@
+package com.klipper.app;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutputManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Durations by path; a path without one fails to probe. */
+    private final Map<String, Double> durations = new HashMap<>();
+    private final OutputManifest.DurationProbe probe = path -> {
+        Double duration = durations.get(path);
+        if (duration == null) {
+            throw new IOException("Cannot probe " + path);
+        }
+        return duration;
+    };
+
+    private File manifestFile;
+
+    @Before
+    public void setUp() {
+        manifestFile = new File(folder.getRoot(), "outputs/manifest.json");
+    }
+
+    private File clip(String name, int bytes, double duration) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[bytes]);
+        }
+        durations.put(file.getAbsolutePath(), duration);
+        return file;
+    }
+
+    private OutputManifest manifest() {
+        return new OutputManifest(manifestFile, probe);
+    }
+
+    @Test
+    public void put_thenLookupReturnsTheClip() throws IOException {
+        File clip = clip("a.mp4", 100, 5.0);
+        OutputManifest manifest = manifest();
+        manifest.put("k", clip);
+
+        OutputManifest.Entry entry = manifest.lookup("k");
+        assertNotNull(entry);
+        assertEquals(clip.getAbsolutePath(), entry.path);
+        assertEquals(100, entry.size);
+        assertEquals(5.0, entry.duration, 1e-9);
+        assertNull(manifest.lookup("other"));
+    }
+
+    @Test
+    public void put_skipsClipThatCannotBeProbed() throws IOException {
+        File clip = clip("a.mp4", 100, 5.0);
+        durations.clear();
+        OutputManifest manifest = manifest();
+        manifest.put("k", clip);
+
+        assertNull(manifest.lookup("k"));
+    }
+
+    @Test
+    public void lookup_dropsClipWhoseSizeChanged() throws IOException {
+        File clip = clip("a.mp4", 100, 5.0);
+        OutputManifest manifest = manifest();
+        manifest.put("k", clip);
+
+        clip("a.mp4", 50, 5.0);
+        assertNull(manifest.lookup("k"));
+        // Dropped for good, even once the file matches again
+        clip("a.mp4", 100, 5.0);
+        assertNull(manifest.lookup("k"));
+    }
+
+    @Test
+    public void lookup_dropsClipWhoseDurationNoLongerMatches() throws IOException {
+        File clip = clip("a.mp4", 100, 5.0);
+        OutputManifest manifest = manifest();
+        manifest.put("k", clip);
+
+        durations.put(clip.getAbsolutePath(), 5.05);
+        assertNotNull("within tolerance", manifest.lookup("k"));
+        durations.put(clip.getAbsolutePath(), 4.0);
+        assertNull(manifest.lookup("k"));
+    }
+
+    @Test
+    public void lookup_dropsClipThatNoLongerProbes() throws IOException {
+        File clip = clip("a.mp4", 100, 5.0);
+        OutputManifest manifest = manifest();
+        manifest.put("k", clip);
+
+        durations.remove(clip.getAbsolutePath());
+        assertNull(manifest.lookup("k"));
+    }
+
+    @Test
+    public void relocate_followsMovedClip() throws IOException {
+        File clip = clip("a.mp4", 100, 5.0);
+        OutputManifest manifest = manifest();
+        manifest.put("k", clip);
+
+        File moved = new File(folder.newFolder("public"), "a.mp4");
+        assertTrue(clip.renameTo(moved));
+        durations.put(moved.getAbsolutePath(), 5.0);
+        manifest.relocate(clip.getAbsolutePath(), moved.getAbsolutePath());
+
+        OutputManifest.Entry entry = manifest.lookup("k");
+        assertNotNull(entry);
+        assertEquals(moved.getAbsolutePath(), entry.path);
+    }
+
+    @Test
+    public void load_keepsEntriesWhoseClipStillExists() throws IOException {
+        File kept = clip("a.mp4", 100, 5.0);
+        File deleted = clip("b.mp4", 100, 3.0);
+        OutputManifest manifest = manifest();
+        manifest.put("kept", kept);
+        manifest.put("deleted", deleted);
+        assertTrue(deleted.delete());
+
+        OutputManifest reloaded = manifest();
+        assertNotNull(reloaded.lookup("kept"));
+        assertNull(reloaded.lookup("deleted"));
+    }
+
+    @Test
+    public void batchKey_dependsOnInputAndRange() {
+        String key = OutputManifest.batchKey("fp", 1.5, 4.0);
+        assertEquals(key, OutputManifest.batchKey("fp", 1.5, 4.0));
+        assertNotEquals(key, OutputManifest.batchKey("other", 1.5, 4.0));
+        assertNotEquals(key, OutputManifest.batchKey("fp", 1.5, 4.5));
+        assertNotEquals(key, OutputManifest.batchKey("fp", 2.0, 4.0));
+    }
+
+    @Test
+    public void lookupAll_reusesOnlyIntactClipsOfKnownRanges() throws IOException {
+        OutputManifest manifest = manifest();
+        File first = clip("clip_1.mp4", 100, 2.5);
+        File second = clip("clip_2.mp4", 100, 3.0);
+        manifest.put(OutputManifest.batchKey("fp", 0, 2.5), first);
+        manifest.put(OutputManifest.batchKey("fp", 10, 13), second);
+        clip("clip_2.mp4", 10, 3.0);
+
+        // As executeBatch asks after a re-run with one range moved; no fingerprint means a null key
+        OutputManifest.Entry[] reused = manifest.lookupAll(new String[] {
+            OutputManifest.batchKey("fp", 0, 2.5),
+            OutputManifest.batchKey("fp", 10, 13),
+            OutputManifest.batchKey("fp", 20, 21),
+            null
+        });
+
+        assertEquals(4, reused.length);
+        assertNotNull(reused[0]);
+        assertEquals(first.getAbsolutePath(), reused[0].path);
+        assertNull("rewritten since it was recorded", reused[1]);
+        assertNull("never rendered", reused[2]);
+        assertNull(reused[3]);
+    }
+}
@@ -0,0 +1,93 @@
+package com.klipper.app;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class SceneAnalyzerTest {
+
+    private static void scene(SceneAnalyzer analyzer, double time, double score) {
+        analyzer.onLog("[Parsed_metadata_3 @ 0x7b] frame:1 pts:0 pts_time:" + time + "\n");
+        analyzer.onLog("[Parsed_metadata_3 @ 0x7b] lavfi.scene_score=" + score + "\n");
+    }
+
+    private static void silence(SceneAnalyzer analyzer, double start, double end) {
+        analyzer.onLog("[silencedetect @ 0x7c] silence_start: " + start + "\n");
+        analyzer.onLog("[silencedetect @ 0x7c] silence_end: " + end + " | silence_duration: " + (end - start) + "\n");
+    }
+
+    @Test
+    public void onLog_assemblesLinesSentInFragments() {
+        SceneAnalyzer analyzer = new SceneAnalyzer(new SceneAnalyzer.Options());
+        analyzer.onLog("[Parsed_metadata_3 @ 0x7b] frame:4 pts:48 pts_ti");
+        analyzer.onLog("me:12.5\n[Parsed_metadata_3 @ 0x7b] lavfi.scene");
+        analyzer.onLog("_score=0.42\n");
+
+        assertEquals(1, analyzer.detections());
+        assertEquals(2, analyzer.lines());
+        List<SceneAnalyzer.Candidate> candidates = analyzer.rank(null);
+        assertEquals(1, candidates.size());
+        assertEquals(12.5, candidates.get(0).time, 1e-9);
+        assertEquals(0.42, candidates.get(0).score, 1e-9);
+        assertEquals("scene", candidates.get(0).kind);
+    }
+
+    @Test
+    public void onLog_ignoresScoreWithoutTimestamp() {
+        SceneAnalyzer analyzer = new SceneAnalyzer(new SceneAnalyzer.Options());
+        analyzer.onLog("lavfi.scene_score=0.9\n");
+        analyzer.onLog("silence_end: 4.0\n");
+
+        assertEquals(0, analyzer.detections());
+        assertEquals(2, analyzer.lines());
+    }
+
+    @Test
+    public void rank_mergesSceneInsidePauseAndKeepsTimeOrder() {
+        SceneAnalyzer analyzer = new SceneAnalyzer(new SceneAnalyzer.Options());
+        scene(analyzer, 30.0, 0.5);
+        scene(analyzer, 10.2, 0.4);
+        silence(analyzer, 9.5, 11.0);
+        silence(analyzer, 50.0, 52.0);
+
+        List<SceneAnalyzer.Candidate> candidates = analyzer.rank(null);
+
+        assertEquals(3, candidates.size());
+        assertEquals(10.2, candidates.get(0).time, 1e-9);
+        assertEquals("both", candidates.get(0).kind);
+        assertTrue(candidates.get(0).score > 0.4);
+        assertEquals("scene", candidates.get(1).kind);
+        assertEquals(51.0, candidates.get(2).time, 1e-9);
+        assertEquals("silence", candidates.get(2).kind);
+        // Without a keyframe index the candidate time is its own keyframe
+        assertEquals(candidates.get(2).time, candidates.get(2).keyframe, 1e-9);
+    }
+
+    @Test
+    public void rank_keepsBestCandidatesUpToTheLimit() {
+        SceneAnalyzer.Options options = new SceneAnalyzer.Options();
+        options.maxCandidates = 2;
+        SceneAnalyzer analyzer = new SceneAnalyzer(options);
+        scene(analyzer, 5, 0.35);
+        scene(analyzer, 20, 0.9);
+        scene(analyzer, 20.5, 0.8);
+        scene(analyzer, 40, 0.6);
+
+        List<SceneAnalyzer.Candidate> candidates = analyzer.rank(null);
+
+        // 20.5 is within a second of the better 20, and 5 is the weakest
+        assertEquals(2, candidates.size());
+        assertEquals(20, candidates.get(0).time, 1e-9);
+        assertEquals(40, candidates.get(1).time, 1e-9);
+    }
+
+    @Test
+    public void cacheKey_includesCandidateLimit() {
+        SceneAnalyzer.Options a = new SceneAnalyzer.Options();
+        SceneAnalyzer.Options b = new SceneAnalyzer.Options();
+        b.maxCandidates = a.maxCandidates + 10;
+        assertNotEquals(a.cacheKey(), b.cacheKey());
+    }
+}
@@ -0,0 +1,104 @@
+package com.klipper.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The copy loops behind copyToCache and moveToPublic (StreamCopy.transferFully,
+ * from a file-backed and from a pipe-backed provider) and getFontPath's
+ * buffered asset copy, across file and chunk/buffer sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CopyBenchmark {
+
+    @Param({ "1", "32", "256" })
+    int fileMb;
+
+    @Param({ "4096", "65536", "1048576", "8388608" })
+    int chunk;
+
+    private File dir;
+    private File target;
+    private long sourceBytes;
+    private String uri;
+    private FakeContentResolver resolver;
+
+    @Setup(Level.Trial)
+    public void createSource() throws IOException {
+        dir = Files.createTempDirectory("klipper-bench").toFile();
+        File source = new File(dir, "source.mp4");
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (RandomAccessFile file = new RandomAccessFile(source, "rw")) {
+            for (int i = 0; i < fileMb; i++) {
+                file.write(block);
+            }
+        }
+        sourceBytes = source.length();
+        target = new File(dir, "target.mp4");
+        resolver = new FakeContentResolver();
+        uri = resolver.add(source);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public long transferFromFileProvider() throws IOException {
+        try (InputStream input = resolver.openInputStream(uri, FakeContentResolver.Backing.FILE);
+             FileOutputStream output = new FileOutputStream(target)) {
+            return checked(StreamCopy.transferFully(input, output.getChannel(), chunk));
+        }
+    }
+
+    @Benchmark
+    public long transferFromPipeProvider() throws IOException {
+        try (InputStream input = resolver.openInputStream(uri, FakeContentResolver.Backing.PIPE);
+             FileOutputStream output = new FileOutputStream(target)) {
+            return checked(StreamCopy.transferFully(input, output.getChannel(), chunk));
+        }
+    }
+
+    @Benchmark
+    public long bufferedCopy() throws IOException {
+        try (InputStream input = resolver.openInputStream(uri, FakeContentResolver.Backing.STREAM);
+             FileOutputStream output = new FileOutputStream(target)) {
+            return StreamCopy.copy(input, output, chunk);
+        }
+    }
+
+    /** A fast copy that drops bytes is a bug, not a win; fail the run instead of timing it. */
+    private long checked(long copied) {
+        if (copied != sourceBytes || target.length() != sourceBytes) {
+            throw new IllegalStateException("Copied " + copied + " of " + sourceBytes + " bytes");
+        }
+        return copied;
+    }
+}
@@ -0,0 +1,93 @@
+package com.klipper.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stands in for ContentResolver.openInputStream. Providers backed by a real
+ * file hand out a FileInputStream over it; providers that generate or
+ * download content hand out ParcelFileDescriptor.createPipe's read end,
+ * which is a FileInputStream too but over a pipe (modelled here with a FIFO
+ * fed by a writer thread, so size() is 0 and position() fails as on a
+ * device). Assets give a plain stream with no channel at all.
+ */
+final class FakeContentResolver {
+
+    enum Backing { FILE, PIPE, STREAM }
+
+    private final Map<String, File> documents = new HashMap<>();
+    private final Map<String, File> fifos = new HashMap<>();
+
+    /** Register a file and return its content:// URI. */
+    String add(File file) {
+        String uri = "content://com.klipper.fake/document/" + file.getName();
+        documents.put(uri, file);
+        return uri;
+    }
+
+    InputStream openInputStream(String uri, Backing backing) throws IOException {
+        File file = documents.get(uri);
+        if (file == null) {
+            throw new IOException("No document for " + uri);
+        }
+        switch (backing) {
+            case PIPE:
+                return openPipe(uri, file);
+            case STREAM:
+                return new FilterInputStream(new FileInputStream(file)) {
+                };
+            default:
+                return new FileInputStream(file);
+        }
+    }
+
+    private InputStream openPipe(String uri, File file) throws IOException {
+        File fifo = fifos.get(uri);
+        if (fifo == null) {
+            fifo = new File(file.getParentFile(), file.getName() + ".fifo");
+            try {
+                if (new ProcessBuilder("mkfifo", fifo.getAbsolutePath()).start().waitFor() != 0) {
+                    throw new IOException("mkfifo failed for " + fifo);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            fifos.put(uri, fifo);
+        }
+
+        final File pipe = fifo;
+        // The provider side: copies the document into the pipe until done or the reader goes away
+        Thread writer = new Thread(() -> {
+            try (FileInputStream in = new FileInputStream(file);
+                 FileOutputStream out = new FileOutputStream(pipe)) {
+                StreamCopy.copy(in, out, StreamCopy.BUFFER_SIZE);
+            } catch (IOException e) {
+                // Reader closed early (broken pipe)
+            }
+        }, "fake-provider-pipe");
+        writer.setDaemon(true);
+        writer.start();
+
+        return new FileInputStream(pipe) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    try {
+                        writer.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,77 @@
+package com.klipper.app;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Command planning and manifest keys for the job shapes the app produces. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlannerBenchmark {
+
+    @Param({ "copy", "crop", "cropText", "cropImage" })
+    String shape;
+
+    private CommandPlanner.Job job;
+    private CommandPlanner.Plan plan;
+    private CommandPlanner.FanOutJob fanOut;
+
+    @Setup
+    public void createJob() {
+        job = new CommandPlanner.Job();
+        job.input = "saf:42.mp4";
+        job.output = "/storage/emulated/0/Movies/Klipper/klip_1700000000000_part3.mp4";
+        job.start = 1234.5;
+        job.end = 1294.5;
+        job.crop = !"copy".equals(shape);
+        if (shape.endsWith("Text")) {
+            job.watermark = new CommandPlanner.Watermark();
+            job.watermark.textFile = "/data/user/0/com.klipper.app/cache/watermark.txt";
+            job.watermark.fontFile = "/data/user/0/com.klipper.app/cache/Roboto-Regular.ttf";
+            job.watermark.position = "bottom";
+        } else if (shape.endsWith("Image")) {
+            job.watermark = new CommandPlanner.Watermark();
+            job.watermark.image = "/data/user/0/com.klipper.app/cache/watermark_ab12cd.png";
+        }
+        plan = CommandPlanner.plan(job);
+
+        // The same range as this shape, plus the full frame and a 360p preview
+        fanOut = new CommandPlanner.FanOutJob();
+        fanOut.input = job.input;
+        fanOut.start = job.start;
+        fanOut.end = job.end;
+        String[] names = { "main", "full", "preview" };
+        for (int i = 0; i < names.length; i++) {
+            CommandPlanner.Variant variant = new CommandPlanner.Variant();
+            variant.output = "/data/user/0/com.klipper.app/cache/" + names[i] + ".mp4";
+            variant.crop = i == 0 && job.crop;
+            variant.watermark = i == 0 ? job.watermark : null;
+            variant.height = i == 2 ? 360 : 0;
+            variant.videoCodec = i == 1 ? "libx264" : "auto";
+            fanOut.variants.add(variant);
+        }
+    }
+
+    @Benchmark
+    public CommandPlanner.Plan plan() {
+        return CommandPlanner.plan(job);
+    }
+
+    @Benchmark
+    public CommandPlanner.FanOutPlan planFanOut() {
+        return CommandPlanner.planFanOut(fanOut);
+    }
+
+    @Benchmark
+    public String settingsKey() {
+        return CommandPlanner.settingsKey(job, plan);
+    }
+}
@@ -0,0 +1,88 @@
+package com.klipper.app;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.arthenica.ffmpegkit.Level;
+import com.arthenica.ffmpegkit.Log;
+import com.arthenica.ffmpegkit.Statistics;
+
+/**
+ * FFmpegKit callback handling under a synthetic flood: statistics through
+ * ProgressAggregator (as every job worker delivers them at once) and log
+ * fragments through LogCapture, plus reading a tail back out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProgressBenchmark {
+
+    private static final int SAMPLES = 4096;
+
+    /** Concurrent sessions the callbacks are spread over. */
+    @Param({ "1", "8" })
+    int sessions;
+
+    private final AtomicLong emitted = new AtomicLong();
+    private ProgressAggregator aggregator;
+    private LogCapture capture;
+    private Statistics[] statistics;
+    private Log[] logs;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void createInputs() {
+        aggregator = new ProgressAggregator(snapshot -> emitted.incrementAndGet());
+        capture = new LogCapture();
+
+        statistics = new Statistics[SAMPLES];
+        logs = new Log[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            long session = i % sessions;
+            statistics[i] = new Statistics(session, i, 30f, 23f, i * 4096L, i * 33.3, 2500.0, 1.8);
+            // FFmpeg sends progress lines in fragments, with the newline last
+            String message = i % 3 == 2
+                ? "\n"
+                : "frame=" + i + " fps=30 q=23.0 size=" + (i * 4) + "kB time=00:00:" + (i % 60) + ".00 ";
+            logs[i] = new Log(session, i % 97 == 0 ? Level.AV_LOG_ERROR : Level.AV_LOG_INFO, message);
+        }
+        for (int i = 0; i < sessions; i++) {
+            aggregator.setDuration(i, 60);
+        }
+        for (Log log : logs) {
+            capture.onLog(log);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void statisticsFlood(Cursor cursor) {
+        aggregator.onStatistics(statistics[cursor.next++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logFlood(Cursor cursor) {
+        capture.onLog(logs[cursor.next++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public void logTail(Blackhole blackhole) {
+        blackhole.consume(capture.get(0).tailAsString(50));
+    }
+}
@@ -0,0 +1,35 @@
+package com.arthenica.ffmpegkit;
+
+/** Fake of FFmpegKit's Level, with the same AV_LOG values. */
+public enum Level {
+
+    AV_LOG_STDERR(-16),
+    AV_LOG_QUIET(-8),
+    AV_LOG_PANIC(0),
+    AV_LOG_FATAL(8),
+    AV_LOG_ERROR(16),
+    AV_LOG_WARNING(24),
+    AV_LOG_INFO(32),
+    AV_LOG_VERBOSE(40),
+    AV_LOG_DEBUG(48),
+    AV_LOG_TRACE(56);
+
+    private final int value;
+
+    Level(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public static Level from(int value) {
+        for (Level level : values()) {
+            if (level.value == value) {
+                return level;
+            }
+        }
+        return AV_LOG_TRACE;
+    }
+}
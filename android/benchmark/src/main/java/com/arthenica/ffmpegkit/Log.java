@@ -0,0 +1,27 @@
+package com.arthenica.ffmpegkit;
+
+/** Fake of FFmpegKit's Log: one log callback entry. */
+public class Log {
+
+    private final long sessionId;
+    private final Level level;
+    private final String message;
+
+    public Log(long sessionId, Level level, String message) {
+        this.sessionId = sessionId;
+        this.level = level;
+        this.message = message;
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
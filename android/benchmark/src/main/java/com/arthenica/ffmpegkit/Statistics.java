@@ -0,0 +1,58 @@
+package com.arthenica.ffmpegkit;
+
+/** Fake of FFmpegKit 6's Statistics: one statistics callback sample. */
+public class Statistics {
+
+    private final long sessionId;
+    private final int videoFrameNumber;
+    private final float videoFps;
+    private final float videoQuality;
+    private final long size;
+    private final double time;
+    private final double bitrate;
+    private final double speed;
+
+    public Statistics(long sessionId, int videoFrameNumber, float videoFps, float videoQuality,
+                      long size, double time, double bitrate, double speed) {
+        this.sessionId = sessionId;
+        this.videoFrameNumber = videoFrameNumber;
+        this.videoFps = videoFps;
+        this.videoQuality = videoQuality;
+        this.size = size;
+        this.time = time;
+        this.bitrate = bitrate;
+        this.speed = speed;
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public int getVideoFrameNumber() {
+        return videoFrameNumber;
+    }
+
+    public float getVideoFps() {
+        return videoFps;
+    }
+
+    public float getVideoQuality() {
+        return videoQuality;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public double getBitrate() {
+        return bitrate;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+}
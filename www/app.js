@@ -798,6 +798,8 @@ if (AppState.watermark.text) {
 // STEP 4: PROCESSING - NATIVE FFMPEG
 // ========================================
 const OUTPUT_DIR = '/storage/emulated/0/Movies/Klipper';
+// CRF for watermarked parts; calibration is measured (and looked up) at the same value
+const ENCODE_CRF = 23;
 
 function prepareProcessingStep() {
     AppState.processing = {
@@ -915,15 +917,17 @@ async function processWithFFmpeg() {
 
     // If it's a content:// URI, we need to copy it to cache first
     if (inputPath.startsWith('content://')) {
-        console.log('Content URI detected, copying to cache...');
+        console.log('Content URI detected, preparing input...');
         Elements.processStatus.textContent = 'Menyalin video ke cache...';
 
         try {
-            const copyResult = await FFmpegPlugin.copyToCache({ uri: inputPath });
+            // mode 'auto': FFmpeg reads the content:// URI directly (SAF) when
+            // it is seekable; the plugin only copies when it has to
+            const copyResult = await FFmpegPlugin.copyToCache({ uri: inputPath, mode: 'auto' });
 
             if (copyResult && copyResult.success) {
                 inputPath = copyResult.path;
-                console.log('Video copied to:', inputPath);
+                console.log('Video input ready (' + copyResult.inputMode + '):', inputPath);
                 Elements.processStatus.textContent = 'Video siap: ' + inputPath.split('/').pop();
             } else {
                 const errMsg = copyResult ? copyResult.error : 'Unknown copy error';
@@ -947,85 +951,106 @@ async function processWithFFmpeg() {
 
     Elements.processStatus.textContent = 'Memproses...';
 
+    // Cut every part in ONE FFmpeg session: one process start and one
+    // bridge round trip instead of one per part (see FFmpegPlugin.executeBatch)
+    const batchStamp = Date.now();
+    const ranges = AppState.parts.map((part, i) => ({
+        start: timestampToSeconds(part.startStr),
+        end: timestampToSeconds(part.endStr),
+        outputName: `clip_${i + 1}_${batchStamp}.mp4`
+    }));
+
+    // Render straight into the destination when it's writable, so
+    // moveToPublic has nothing to copy (it just registers the file)
+    const destFolder = AppState.outputFolder + '/Klipper';
+    let outputDir;
+    try {
+        const folder = await FFmpegPlugin.checkOutputFolder({ destFolder: destFolder });
+        if (folder && folder.writable) {
+            outputDir = folder.path;
+        }
+    } catch (e) {
+        console.warn('Could not check output folder:', e);
+    }
+
+    // Burning in the watermark needs an encode per part, at the preset the
+    // device's calibrated profile picks; plain cuts are stream-copied
+    const burnWatermark = AppState.watermark.enabled && !!AppState.watermark.text;
+    let batchResult = null;
+    let clips = [];
+    if (burnWatermark) {
+        await prepareEncoderProfile(inputPath, ranges);
+    } else {
+        try {
+            Elements.processStatus.textContent = `Memproses ${totalClips} part...`;
+            batchResult = await FFmpegPlugin.executeBatch({ input: inputPath, ranges: ranges, outputDir: outputDir });
+            console.log('FFmpeg batch result:', batchResult);
+        } catch (e) {
+            console.error('FFmpeg error:', e);
+            Elements.processStatus.textContent = `Error: ${e.message}`;
+            finishProcessing();
+            return;
+        }
+        clips = (batchResult && batchResult.clips) || [];
+    }
+
     for (let i = 0; i < totalClips; i++) {
         if (!AppState.processing.isRunning) {
             Elements.processStatus.textContent = 'Dibatalkan';
             return;
         }
 
-        const part = AppState.parts[i];
-        const outputFilename = `clip_${i + 1}_${Date.now()}.mp4`;
-        // Use app's cache directory for temporary output
-        const outputPath = `/data/data/com.klipper.app/cache/${outputFilename}`;
-
-        Elements.processStatus.textContent = `Memproses Part ${i + 1}/${totalClips}...`;
-
-        // Build simplest possible FFmpeg command first
-        // Crop DISABLED for testing - just cut the video
-        const startSeconds = timestampToSeconds(part.startStr);
-        const endSeconds = timestampToSeconds(part.endStr);
-        const duration = endSeconds - startSeconds;
-
-        // Simplest command: just cut video without re-encoding (copy codec)
-        // If this fails, the issue is with paths or FFmpeg itself
-        const command = `-y -ss ${startSeconds} -i "${inputPath}" -t ${duration} -c copy "${outputPath}"`;
-
-        console.log('FFmpeg command:', command);
-
-        try {
+        let clip = clips[i];
+        if (burnWatermark) {
             Elements.processStatus.textContent = `Memproses Part ${i + 1}/${totalClips}...`;
-            const result = await FFmpegPlugin.execute({ command: command });
-
-            console.log('FFmpeg result:', result);
-
-            if (result && result.success) {
-                console.log(`Part ${i + 1} completed in cache:`, outputPath);
+            clip = await encodePart(inputPath, ranges[i], outputDir);
+        }
 
-                // ========================================
-                // CRITICAL FIX: Wrap moveToPublic in Try-Catch
-                // ========================================
-                // WHY THIS FIX IS NEEDED:
-                // 1. moveToPublic can throw exceptions (permission denied, folder doesn't exist, etc)
-                // 2. Without try-catch, exception crashes entire app
-                // 3. User reported: "Setelah copy video ke cache lalu aplikasi close"
-                // 4. Even if move fails, file is still in cache - not critical
-                //
-                // DEBUG HISTORY:
-                // - App was crashing at moveToPublic call
-                // - Wrapped in try-catch to prevent crash
-                // - File stays in /data/data/com.klipper.app/cache/ if move fails
-                Elements.processStatus.textContent = `Menyimpan Part ${i + 1}...`;
+        if (clip && clip.success) {
+            console.log(`Part ${i + 1} completed in cache:`, clip.path);
+
+            // ========================================
+            // CRITICAL FIX: Wrap moveToPublic in Try-Catch
+            // ========================================
+            // WHY THIS FIX IS NEEDED:
+            // 1. moveToPublic can throw exceptions (permission denied, folder doesn't exist, etc)
+            // 2. Without try-catch, exception crashes entire app
+            // 3. User reported: "Setelah copy video ke cache lalu aplikasi close"
+            // 4. Even if move fails, file is still in cache - not critical
+            //
+            // DEBUG HISTORY:
+            // - App was crashing at moveToPublic call
+            // - Wrapped in try-catch to prevent crash
+            // - File stays in /data/data/com.klipper.app/cache/ if move fails
+            Elements.processStatus.textContent = `Menyimpan Part ${i + 1}...`;
 
-                try {
-                    const moveResult = await FFmpegPlugin.moveToPublic({
-                        source: outputPath,
-                        filename: outputFilename,
-                        destFolder: AppState.outputFolder + '/Klipper'
-                    });
-
-                    if (moveResult && moveResult.success) {
-                        console.log(`Part ${i + 1} saved to:`, moveResult.path);
-                    } else {
-                        console.warn(`Part ${i + 1} move failed:`, moveResult?.error);
-                        // File remains in cache, not critical error
-                    }
-                } catch (moveErr) {
-                    console.error(`Part ${i + 1} moveToPublic exception:`, moveErr);
-                    // Don't crash app - file is still in cache
+            try {
+                const moveResult = await FFmpegPlugin.moveToPublic({
+                    source: clip.path,
+                    filename: clip.outputName,
+                    destFolder: destFolder
+                });
+
+                if (moveResult && moveResult.success) {
+                    console.log(`Part ${i + 1} saved to:`, moveResult.path,
+                        `(${moveResult.strategy}, ${moveResult.bytes} bytes, ${moveResult.elapsedMs} ms)`);
+                } else {
+                    console.warn(`Part ${i + 1} move failed:`, moveResult?.error);
+                    // File remains in cache, not critical error
                 }
-            } else {
-                const errMsg = result ? result.error : 'No result';
-                const retCode = result ? result.returnCode : 'N/A';
+            } catch (moveErr) {
+                console.error(`Part ${i + 1} moveToPublic exception:`, moveErr);
+                // Don't crash app - file is still in cache
+            }
+        } else {
+            const errMsg = clip ? clip.error : (batchResult ? batchResult.error : 'No result');
+            const retCode = batchResult ? batchResult.returnCode : 'N/A';
 
-                console.error(`Part ${i + 1} failed:`, errMsg);
-                Elements.processStatus.textContent = `Error Part ${i + 1}`;
+            console.error(`Part ${i + 1} failed:`, errMsg);
+            Elements.processStatus.textContent = `Error Part ${i + 1}`;
 
-                // Show error briefly
-                alert(`Part ${i + 1} gagal (code ${retCode})`);
-            }
-        } catch (e) {
-            console.error('FFmpeg error:', e);
-            Elements.processStatus.textContent = `Error: ${e.message}`;
+            // Show error briefly
+            alert(`Part ${i + 1} gagal (code ${retCode})`);
         }
 
         // Update progress
@@ -1041,6 +1066,50 @@ async function processWithFFmpeg() {
     finishProcessing();
 }
 
+/**
+ * Make sure preset 'auto' has a calibrated profile for this input's class at
+ * ENCODE_CRF, calibrating once if not (a short sample per preset, cached per
+ * class). Without a profile 'auto' falls back to the old fixed preset.
+ */
+async function prepareEncoderProfile(inputPath, ranges) {
+    const duration = ranges.reduce((sum, range) => sum + (range.end - range.start), 0);
+    try {
+        let profile = await FFmpegPlugin.getEncoderProfile({ input: inputPath, crf: ENCODE_CRF, duration: duration });
+        if (profile && profile.success && !profile.calibrated) {
+            Elements.processStatus.textContent = 'Mengkalibrasi encoder...';
+            await FFmpegPlugin.calibrateEncoder({ input: inputPath, crf: ENCODE_CRF });
+            profile = await FFmpegPlugin.getEncoderProfile({ input: inputPath, crf: ENCODE_CRF, duration: duration });
+        }
+        console.log('Encoder settings:', profile);
+    } catch (e) {
+        console.warn('No encoder profile, using the default preset:', e);
+    }
+}
+
+/** Encode one part with the watermark burned in; resolves to the same shape as an executeBatch clip. */
+async function encodePart(inputPath, range, outputDir) {
+    try {
+        const result = await FFmpegPlugin.planAndExecute({
+            input: inputPath,
+            output: outputDir ? `${outputDir}/${range.outputName}` : undefined,
+            start: range.start,
+            end: range.end,
+            watermark: { text: AppState.watermark.text, position: AppState.watermark.position },
+            preset: 'auto',
+            crf: ENCODE_CRF
+        });
+        console.log(`Encoded ${range.outputName}:`, result && result.encoderSettings);
+        return {
+            success: !!(result && result.success),
+            path: result && result.path,
+            outputName: range.outputName,
+            error: result && result.error
+        };
+    } catch (e) {
+        return { success: false, outputName: range.outputName, error: e.message };
+    }
+}
+
 function simulateProcessing() {
     const totalClips = AppState.parts.length;
     let currentClip = 0;
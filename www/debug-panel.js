@@ -22,6 +22,7 @@ class DebugPanel {
             <div class="debug-header">
                 <span class="debug-title">🔍 Debug Console</span>
                 <div class="debug-controls">
+                    <button class="debug-btn" id="debugMetrics">Metrics</button>
                     <button class="debug-btn" id="debugClear">Clear</button>
                     <button class="debug-btn" id="debugCopy">Copy</button>
                     <button class="debug-btn" id="debugClose">Hide</button>
@@ -43,6 +44,7 @@ class DebugPanel {
         document.getElementById('debugClose').addEventListener('click', () => this.hide());
         document.getElementById('debugClear').addEventListener('click', () => this.clear());
         document.getElementById('debugCopy').addEventListener('click', () => this.copyLogs());
+        document.getElementById('debugMetrics').addEventListener('click', () => this.logMetrics());
 
         this.panel = panel;
         this.logsContainer = document.getElementById('debugLogs');
@@ -162,6 +164,33 @@ class DebugPanel {
         this.render();
     }
 
+    async logMetrics() {
+        const plugin = window.Capacitor?.Plugins?.FFmpegPlugin;
+        if (!plugin?.getMetrics) {
+            console.warn('Metrics are only available in the native app');
+            return;
+        }
+
+        const metrics = await plugin.getMetrics();
+        if (!metrics.success) {
+            console.error('getMetrics failed:', metrics.error);
+            return;
+        }
+
+        // One line per stage: where the time went, and whether it was I/O or encode bound
+        for (const [name, stage] of Object.entries(metrics.stages)) {
+            if (!stage.count) continue;
+            let line = `${name}: ${stage.count}x, mean ${stage.meanMs.toFixed(0)} ms, p90 ${stage.p90Ms < 0 ? '>300000' : stage.p90Ms} ms, max ${stage.maxMs} ms`;
+            if (stage.bytesPerSecond) {
+                line += `, ${(stage.bytesPerSecond / 1048576).toFixed(1)} MB/s`;
+            }
+            if (stage.speedFactor) {
+                line += `, ${stage.speedFactor.toFixed(2)}x realtime`;
+            }
+            console.info(line);
+        }
+    }
+
     copyLogs() {
         const text = this.logs.map(log =>
             `[${log.timestamp}] ${log.level.toUpperCase()}: ${log.message}`
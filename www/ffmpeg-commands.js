@@ -87,7 +87,9 @@ export function buildFullCommand(inputPath, outputPath, options) {
         startSeconds,
         endSeconds,
         watermark,   // {text, position, fontSize}
-        crop = true  // Enable 9:16 crop
+        crop = true, // Enable 9:16 crop
+        preset = 'fast', // e.g. the preset picked by getEncoderProfile
+        threads = 0  // 0 lets the encoder decide
     } = options;
 
     const filters = [];
@@ -129,7 +131,10 @@ export function buildFullCommand(inputPath, outputPath, options) {
 
     // Output settings
     args.push('-c:a', 'aac');
-    args.push('-preset', 'fast');
+    args.push('-preset', preset);
+    if (threads > 0) {
+        args.push('-threads', String(threads));
+    }
     args.push(outputPath);
 
     return args;
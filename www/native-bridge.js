@@ -108,10 +108,24 @@ export async function saveFile(filename, data) {
 
 /**
  * Get video duration (seconds)
+ * On native this asks FFmpegPlugin.probe (FFprobe, cached per video), which is
+ * faster and more reliable than waiting for a <video> element's metadata.
  * @param {string} videoPath 
  * @returns {Promise<number>}
  */
-export function getVideoDuration(videoPath) {
+export async function getVideoDuration(videoPath) {
+    const plugin = Capacitor.Plugins && Capacitor.Plugins.FFmpegPlugin;
+    if (isNative && plugin) {
+        try {
+            const info = await plugin.probe({ input: videoPath });
+            if (info && info.success && info.duration > 0) {
+                return info.duration;
+            }
+        } catch (e) {
+            console.warn('Native probe failed, using <video> metadata:', e);
+        }
+    }
+
     return new Promise((resolve, reject) => {
         const video = document.createElement('video');
         video.preload = 'metadata';